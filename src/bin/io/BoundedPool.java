@@ -0,0 +1,46 @@
+package bin.io;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * 有上限的对象池
+ * <p>
+ * 所有线程共享一个有界队列，归还时队列已满则交给discarder释放，因此池中对象数量最多为队列容量。
+ * 不使用线程本地的缓存位，否则短期线程结束后其中的对象只能等待GC回收，Inflater等对象的本地内存也不会及时释放。
+ *
+ * @author Bin
+ */
+public class BoundedPool<T> {
+    private final Supplier<T> factory;
+    private final Consumer<T> discarder;
+    private final BlockingQueue<T> shared;
+
+    /**
+     * @param capacity  共享队列的容量
+     * @param factory   池为空时用于创建新对象
+     * @param discarder 池已满时用于释放多余的对象，可以为null
+     */
+    public BoundedPool(int capacity, Supplier<T> factory, Consumer<T> discarder) {
+        this.shared = new ArrayBlockingQueue<>(capacity);
+        this.factory = factory;
+        this.discarder = discarder;
+    }
+
+    public T acquire() {
+        T t = shared.poll();
+        return t != null ? t : factory.get();
+    }
+
+    /**
+     * 归还对象，归还后调用方不能再使用该对象
+     */
+    public void release(T t) {
+        if (!shared.offer(t) && discarder != null) {
+            discarder.accept(t);
+        }
+    }
+
+}
@@ -0,0 +1,62 @@
+package bin.io;
+
+/**
+ * 全局共享的数组缓冲区池
+ * <p>
+ * 缓冲区按2的幂分级，从4K到1M，取得的缓冲区长度可能大于请求的长度。超过1M的请求直接分配，
+ * 归还时也会被忽略。
+ *
+ * @author Bin
+ */
+public class BufferPool {
+    private static final int MIN_SHIFT = 12;
+    private static final int MAX_SHIFT = 20;
+    private static final int CAPACITY = 8;
+
+    private static final BoundedPool<byte[]>[] ARRAYS = newPools();
+
+    private BufferPool() {
+    }
+
+    @SuppressWarnings("unchecked")
+    private static BoundedPool<byte[]>[] newPools() {
+        BoundedPool<byte[]>[] pools = (BoundedPool<byte[]>[]) new BoundedPool<?>[MAX_SHIFT - MIN_SHIFT + 1];
+        for (int i = 0; i < pools.length; i++) {
+            int size = 1 << (MIN_SHIFT + i);
+            pools[i] = new BoundedPool<>(CAPACITY, () -> new byte[size], null);
+        }
+        return pools;
+    }
+
+    private static int indexOf(int size) {
+        if (size > 1 << MAX_SHIFT) {
+            return -1;
+        }
+        int shift = 32 - Integer.numberOfLeadingZeros(Math.max(size, 1) - 1);
+        return Math.max(shift, MIN_SHIFT) - MIN_SHIFT;
+    }
+
+    private static int exactIndexOf(int size) {
+        int index = indexOf(size);
+        return index >= 0 && 1 << (MIN_SHIFT + index) == size ? index : -1;
+    }
+
+    /**
+     * @return 长度不小于size的数组，内容未清零
+     */
+    public static byte[] acquire(int size) {
+        int index = indexOf(size);
+        return index < 0 ? new byte[size] : ARRAYS[index].acquire();
+    }
+
+    public static void release(byte[] buffer) {
+        if (buffer == null) {
+            return;
+        }
+        int index = exactIndexOf(buffer.length);
+        if (index >= 0) {
+            ARRAYS[index].release(buffer);
+        }
+    }
+
+}
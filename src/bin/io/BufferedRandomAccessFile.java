@@ -2,6 +2,7 @@ package bin.io;
 
 import java.io.EOFException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 /**
@@ -32,6 +33,7 @@ public final class BufferedRandomAccessFile implements RandomAccessFile {
     private long diskPos_; // disk position
     private RandomAccessData randomAccessData;
     private long randomAccessDataLength = -1;
+    private volatile boolean stale_; // buff may be overwritten by positional writes
 
     /**
      * Open a new <code>BufferedRandomAccessFile</code> on <code>file</code>
@@ -130,6 +132,26 @@ public final class BufferedRandomAccessFile implements RandomAccessFile {
         return len;
     }
 
+    @Override
+    public int read(long position, byte[] data, int off, int len) throws IOException {
+        if (this.dirty_) {
+            this.flushBuffer();
+        }
+        return randomAccessData.read(position, data, off, len);
+    }
+
+    @Override
+    public void write(long position, byte[] data, int off, int len) throws IOException {
+        if (this.dirty_) {
+            this.flushBuffer();
+        }
+        randomAccessData.write(position, data, off, len);
+        if (position < this.maxHi_ && position + len > this.lo_) {
+            this.stale_ = true;
+        }
+        randomAccessDataLength = -1;
+    }
+
     @Override
     public void readFully(byte[] data) throws IOException {
         readFully(data, 0, data.length);
@@ -187,7 +209,8 @@ public final class BufferedRandomAccessFile implements RandomAccessFile {
      */
     @Override
     public void seek(long pos) throws IOException {
-        if (pos >= this.hi_ || pos < this.lo_) {
+        if (this.stale_ || pos >= this.hi_ || pos < this.lo_) {
+            this.stale_ = false;
             // seeking outside of current buffer -- flush and read
             this.flushBuffer();
             this.lo_ = pos & BuffMask_; // start at BuffSz boundary
@@ -259,6 +282,12 @@ public final class BufferedRandomAccessFile implements RandomAccessFile {
         this.flushBuffer();
     }
 
+    @Override
+    public ByteBuffer map(long offset, long length) throws IOException {
+        this.flushBuffer();
+        return randomAccessData.map(offset, length);
+    }
+
     @Override
     public void close() throws IOException {
         this.flush();
@@ -1,6 +1,7 @@
 package bin.io;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  * @author Bin
@@ -44,6 +45,18 @@ class FragmentRandomAccessData implements RandomAccessData {
         return readLen;
     }
 
+    @Override
+    public int read(long position, byte[] data, int off, int len) throws IOException {
+        long available = length - position;
+        if (len > available) {
+            if (available <= 0) {
+                return -1;
+            }
+            len = (int) available;
+        }
+        return randomAccessData.read(offset + position, data, off, len);
+    }
+
     @Override
     public void write(byte[] data, int off, int len) throws IOException {
         throw new IOException("FragmentRandomAccessData is readonly");
@@ -84,6 +97,14 @@ class FragmentRandomAccessData implements RandomAccessData {
         return new FragmentRandomAccessData(randomAccessData.newSameInstance(), offset, length);
     }
 
+    @Override
+    public ByteBuffer map(long offset, long length) throws IOException {
+        if (offset < 0 || length < 0 || offset + length > this.length) {
+            throw new IOException(String.format("map.offset=%d, map.length=%d, fragment.length=%d", offset, length, this.length));
+        }
+        return randomAccessData.map(this.offset + offset, length);
+    }
+
     @Override
     public void close() throws IOException {
         randomAccessData.close();
@@ -0,0 +1,149 @@
+package bin.io;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * 只能顺序写入的RandomAccessFile，用于直接输出到OutputStream或WritableByteChannel
+ * <p>
+ * 只支持定位到当前位置，不支持读取。
+ *
+ * @author Bin
+ */
+public class OutputStreamRandomAccessFile implements RandomAccessFile {
+    private final OutputStream out;
+    private long position;
+    private boolean closed;
+
+    public OutputStreamRandomAccessFile(OutputStream out) {
+        this.out = new BufferedOutputStream(out, 64 * 1024);
+    }
+
+    public OutputStreamRandomAccessFile(WritableByteChannel channel) {
+        this(Channels.newOutputStream(channel));
+    }
+
+    @Override
+    public void write(int value) throws IOException {
+        out.write(value);
+        position++;
+    }
+
+    @Override
+    public void write(byte[] data) throws IOException {
+        write(data, 0, data.length);
+    }
+
+    @Override
+    public void write(byte[] data, int off, int len) throws IOException {
+        out.write(data, off, len);
+        position += len;
+    }
+
+    @Override
+    public int read() throws IOException {
+        throw new IOException("Write only");
+    }
+
+    @Override
+    public int read(byte[] data) throws IOException {
+        throw new IOException("Write only");
+    }
+
+    @Override
+    public int read(byte[] data, int off, int len) throws IOException {
+        throw new IOException("Write only");
+    }
+
+    @Override
+    public int read(long position, byte[] data, int off, int len) throws IOException {
+        throw new IOException("Write only");
+    }
+
+    @Override
+    public void write(long position, byte[] data, int off, int len) throws IOException {
+        throw new IOException("Unsupported");
+    }
+
+    @Override
+    public void readFully(byte[] data) throws IOException {
+        throw new IOException("Write only");
+    }
+
+    @Override
+    public void readFully(byte[] data, int off, int len) throws IOException {
+        throw new IOException("Write only");
+    }
+
+    @Override
+    public long length() {
+        return position;
+    }
+
+    @Override
+    public void setLength(long newLength) throws IOException {
+        throw new IOException("Not seekable");
+    }
+
+    @Override
+    public void seek(long pos) throws IOException {
+        if (pos != position) {
+            throw new IOException("Not seekable: position=" + position + ", seek=" + pos);
+        }
+    }
+
+    @Override
+    public int skipBytes(int n) throws IOException {
+        if (n != 0) {
+            throw new IOException("Not seekable");
+        }
+        return 0;
+    }
+
+    @Override
+    public long getFilePointer() {
+        return position;
+    }
+
+    @Override
+    public String getName() {
+        return "stream";
+    }
+
+    @Override
+    public RandomAccessFile getAnotherInSameParent(String name) throws IOException {
+        throw new IOException("Unsupported");
+    }
+
+    @Override
+    public RandomAccessFile newSameInstance() throws IOException {
+        throw new IOException("Unsupported");
+    }
+
+    @Override
+    public RandomAccessFile newFragment(long offset, long length) throws IOException {
+        throw new IOException("Unsupported");
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            out.close();
+        }
+    }
+
+}
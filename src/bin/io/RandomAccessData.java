@@ -2,6 +2,7 @@ package bin.io;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  * @author Bin
@@ -12,8 +13,42 @@ public interface RandomAccessData extends Closeable {
 
     int read(byte[] data, int off, int len) throws IOException;
 
+    /**
+     * 从指定位置读取数据，不影响当前位置
+     * <p>
+     * 默认实现通过seek完成，需要多线程并发读取时实现类应使用真正的定位读取
+     */
+    default int read(long position, byte[] data, int off, int len) throws IOException {
+        synchronized (this) {
+            long saved = position();
+            try {
+                seek(position);
+                return read(data, off, len);
+            } finally {
+                seek(saved);
+            }
+        }
+    }
+
     void write(byte[] data, int off, int len) throws IOException;
 
+    /**
+     * 在指定位置写入数据，不影响当前位置
+     * <p>
+     * 默认实现通过seek完成，需要多线程并发写入时实现类应使用真正的定位写入
+     */
+    default void write(long position, byte[] data, int off, int len) throws IOException {
+        synchronized (this) {
+            long saved = position();
+            try {
+                seek(position);
+                write(data, off, len);
+            } finally {
+                seek(saved);
+            }
+        }
+    }
+
     long length() throws IOException;
 
     void setLength(long newLength) throws IOException;
@@ -31,4 +66,11 @@ public interface RandomAccessData extends Closeable {
     default RandomAccessData newFragment(long offset, long length) throws IOException {
         return new FragmentRandomAccessData(newSameInstance(), offset, length);
     }
+
+    /**
+     * 以只读方式映射指定区域
+     */
+    default ByteBuffer map(long offset, long length) throws IOException {
+        throw new IOException("Unsupported");
+    }
 }
@@ -4,6 +4,8 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 /**
  * @author Bin
@@ -33,6 +35,19 @@ class RandomAccessDataImpl implements RandomAccessData {
         return randomAccessFile.read(data, off, len);
     }
 
+    @Override
+    public int read(long position, byte[] data, int off, int len) throws IOException {
+        return randomAccessFile.getChannel().read(ByteBuffer.wrap(data, off, len), position);
+    }
+
+    @Override
+    public void write(long position, byte[] data, int off, int len) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(data, off, len);
+        while (buffer.hasRemaining()) {
+            position += randomAccessFile.getChannel().write(buffer, position);
+        }
+    }
+
     @Override
     public void write(byte[] data, int off, int len) throws IOException {
         randomAccessFile.write(data, off, len);
@@ -74,6 +89,11 @@ class RandomAccessDataImpl implements RandomAccessData {
         return new RandomAccessDataImpl(file, mode);
     }
 
+    @Override
+    public ByteBuffer map(long offset, long length) throws IOException {
+        return randomAccessFile.getChannel().map(FileChannel.MapMode.READ_ONLY, offset, length);
+    }
+
     @Override
     public void close() throws IOException {
         randomAccessFile.close();
@@ -3,6 +3,7 @@ package bin.io;
 import java.io.Closeable;
 import java.io.EOFException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  * @author Bin
@@ -21,6 +22,42 @@ public interface RandomAccessFile extends Closeable {
 
     int read(byte[] data, int off, int len) throws IOException;
 
+    /**
+     * 从指定位置读取数据，不经过缓冲区也不影响当前位置，只读时可在多个线程中同时调用
+     * <p>
+     * 默认实现加锁后通过seek完成，多个线程的读取会依次进行，实现类应使用真正的定位读取
+     */
+    default int read(long position, byte[] data, int off, int len) throws IOException {
+        synchronized (this) {
+            long saved = getFilePointer();
+            try {
+                seek(position);
+                return read(data, off, len);
+            } finally {
+                seek(saved);
+            }
+        }
+    }
+
+    /**
+     * 在指定位置写入数据，不经过缓冲区也不影响当前位置，写入区域互不重叠时可在多个线程中同时调用
+     * <p>
+     * 调用前需要 {@link #flush()}，之后需要先 {@link #seek(long)} 再通过缓冲区读写。
+     * 默认实现加锁后通过seek完成并立即flush，实现类应使用真正的定位写入
+     */
+    default void write(long position, byte[] data, int off, int len) throws IOException {
+        synchronized (this) {
+            long saved = getFilePointer();
+            try {
+                seek(position);
+                write(data, off, len);
+                flush();
+            } finally {
+                seek(saved);
+            }
+        }
+    }
+
     void readFully(byte[] data) throws IOException;
 
     void readFully(byte[] data, int off, int len) throws IOException;
@@ -45,6 +82,15 @@ public interface RandomAccessFile extends Closeable {
 
     void flush() throws IOException;
 
+    /**
+     * 以只读方式映射指定区域，映射前会先写入缓冲区中的数据
+     *
+     * @throws UnsupportedOperationException 不支持映射，默认实现
+     */
+    default ByteBuffer map(long offset, long length) throws IOException {
+        throw new UnsupportedOperationException("map");
+    }
+
     boolean isClosed();
 
     default void writeByte(byte b) throws IOException {
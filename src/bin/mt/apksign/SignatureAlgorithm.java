@@ -98,6 +98,18 @@ abstract class SignatureAlgorithm {
     private static void updateChunkContentDigest(MessageDigest contentDigest, DataSource dataSource,
                                                  OutputStream output) throws IOException {
         int chunkCount = getChunkCount(dataSource.size());
+        // 所有块共用一个输出到contentDigest的流
+        OutputStream digestStream = new OutputStream() {
+            @Override
+            public void write(int b) {
+                contentDigest.update((byte) b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                contentDigest.update(b, off, len);
+            }
+        };
 
         byte[] chunkContentPrefix = new byte[5];
         chunkContentPrefix[0] = (byte) 0xa5;
@@ -108,7 +120,7 @@ abstract class SignatureAlgorithm {
             setInt(chunkSize, chunkContentPrefix, 1);
 
             contentDigest.update(chunkContentPrefix);
-            dataSource.copyTo(contentDigest, chunkSize);
+            dataSource.copyTo(digestStream, chunkSize);
 
             byte[] digest = contentDigest.digest();
             // PrintUtil.printDigest(digest);
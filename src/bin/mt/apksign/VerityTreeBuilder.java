@@ -22,6 +22,8 @@ import bin.mt.apksign.data.DataSource;
 import bin.mt.apksign.data.DataSources;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.security.DigestException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
@@ -50,9 +52,31 @@ class VerityTreeBuilder {
 
     private final MessageDigest mMd;
 
+    /**
+     * Feeds mMd, shared by every chunk instead of wrapping the digest on each call.
+     */
+    private final OutputStream mMdStream;
+
+    /**
+     * Receives the digest of each chunk before it is passed to the sink.
+     */
+    private final byte[] mHash;
+
     VerityTreeBuilder(byte[] salt) throws NoSuchAlgorithmException {
         mSalt = salt;
         mMd = MessageDigest.getInstance(JCA_ALGORITHM);
+        mMdStream = new OutputStream() {
+            @Override
+            public void write(int b) {
+                mMd.update((byte) b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                mMd.update(b, off, len);
+            }
+        };
+        mHash = new byte[mMd.getDigestLength()];
     }
 
     /**
@@ -163,8 +187,8 @@ class VerityTreeBuilder {
         long size = dataSource.size();
         long offset = 0;
         for (; offset + CHUNK_SIZE <= size; offset += CHUNK_SIZE) {
-            byte[] hash = saltedDigest(dataSource);
-            dataSink.consume(hash, 0, hash.length);
+            saltedDigest(dataSource, mHash);
+            dataSink.consume(mHash, 0, mHash.length);
         }
 
         // Send the last incomplete chunk with 0 padding to the sink at once.
@@ -174,13 +198,17 @@ class VerityTreeBuilder {
         }
     }
 
-    private byte[] saltedDigest(DataSource source) throws IOException {
+    private void saltedDigest(DataSource source, byte[] hash) throws IOException {
         mMd.reset();
         if (mSalt != null) {
             mMd.update(mSalt);
         }
-        source.copyTo(mMd, VerityTreeBuilder.CHUNK_SIZE);
-        return mMd.digest();
+        source.copyTo(mMdStream, VerityTreeBuilder.CHUNK_SIZE);
+        try {
+            mMd.digest(hash, 0, hash.length);
+        } catch (DigestException e) {
+            throw new IllegalStateException(e);
+        }
     }
 
     private byte[] saltedDigest(byte[] data) {
@@ -1,5 +1,6 @@
 package bin.mt.apksign.data;
 
+import bin.io.BufferPool;
 import bin.io.RandomAccessFile;
 
 import java.io.EOFException;
@@ -38,13 +39,17 @@ public class FileDataSource implements DataSource {
     public void copyTo(OutputStream os, long length) throws IOException {
         if (length > remaining())
             throw new EOFException();
-        byte[] buf = new byte[4096];
-        int readLen;
-        randomAccessFile.seek(start + pos);
-        while (length > 0 && (readLen = randomAccessFile.read(buf, 0, (int) Math.min(length, buf.length))) != -1) {
-            os.write(buf, 0, readLen);
-            length -= readLen;
-            pos += readLen;
+        byte[] buf = BufferPool.acquire((int) Math.min(length, 64 * 1024));
+        try {
+            int readLen;
+            randomAccessFile.seek(start + pos);
+            while (length > 0 && (readLen = randomAccessFile.read(buf, 0, (int) Math.min(length, buf.length))) != -1) {
+                os.write(buf, 0, readLen);
+                length -= readLen;
+                pos += readLen;
+            }
+        } finally {
+            BufferPool.release(buf);
         }
         if (length != 0)
             throw new IllegalStateException("Remaining length: " + length);
@@ -0,0 +1,141 @@
+package bin.zip;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 存储条目的数据对齐规则，由ZipMaker写入时使用，DataMultiplexing也据此判断内部条目能否复用
+ * <p>
+ * 规则为glob表达式到对齐字节数的映射，后添加的规则优先。不含'/'的表达式匹配任意目录下的文件名，
+ * 否则匹配完整路径；'*'不跨越目录，'**'可以跨越目录，'?'匹配单个字符。
+ * 没有规则匹配时使用 {@link #DEFAULT_ALIGNMENT}，这只是zipalign的惯例，DataMultiplexing不要求原包中的这类条目对齐。
+ * <p>
+ * 预置规则都让resources.arsc按4字节对齐，Android 11以上的系统要求如此。{@link #PAGE_4K} 与原来的zipalign -p相同，
+ * 是ZipMaker与DataMultiplexing的默认规则；{@link #PAGE_16K} 让.so按16K对齐，16K页大小的设备可以直接映射，
+ * 不需要解压复制，4K页大小的设备同样满足。DataMultiplexing使用16K规则时，宿主中只按4K对齐的.so不能复用，
+ * 输出会明显变大，宿主本身按16K对齐时才适合使用。
+ *
+ * @author Bin
+ */
+public class AlignmentPolicy {
+    public static final int DEFAULT_ALIGNMENT = 4;
+    public static final int PAGE_ALIGNMENT_4K = 4096;
+    public static final int PAGE_ALIGNMENT_16K = 16384;
+
+    /**
+     * 与zipalign -p相同，.so按4K对齐，其它条目按4字节对齐
+     */
+    public static final AlignmentPolicy PAGE_4K = new AlignmentPolicy()
+            .add("resources.arsc", DEFAULT_ALIGNMENT)
+            .add("*.so", PAGE_ALIGNMENT_4K)
+            .seal();
+
+    /**
+     * .so按16K对齐，其它条目按4字节对齐
+     */
+    public static final AlignmentPolicy PAGE_16K = new AlignmentPolicy()
+            .add("resources.arsc", DEFAULT_ALIGNMENT)
+            .add("*.so", PAGE_ALIGNMENT_16K)
+            .seal();
+
+    private final List<Rule> rules = new ArrayList<>();
+    private boolean sealed;
+
+    public AlignmentPolicy() {
+    }
+
+    /**
+     * 复制other的规则，用于在预置规则的基础上修改
+     */
+    public AlignmentPolicy(AlignmentPolicy other) {
+        rules.addAll(other.rules);
+    }
+
+    /**
+     * @param glob      如 *.so、lib/arm64-v8a/*.so、assets/**.bin
+     * @param alignment 对齐字节数，必须是2的幂且不超过32K
+     */
+    public AlignmentPolicy add(String glob, int alignment) {
+        if (sealed) {
+            throw new UnsupportedOperationException("Predefined policy cannot be modified");
+        }
+        if (alignment <= 0 || alignment > 32768 || (alignment & (alignment - 1)) != 0) {
+            throw new IllegalArgumentException("alignment=" + alignment);
+        }
+        rules.add(new Rule(glob, alignment));
+        return this;
+    }
+
+    private AlignmentPolicy seal() {
+        sealed = true;
+        return this;
+    }
+
+    public int getAlignment(String name) {
+        Rule rule = findRule(name);
+        return rule == null ? DEFAULT_ALIGNMENT : rule.alignment;
+    }
+
+    /**
+     * @return 是否有规则匹配该条目
+     */
+    public boolean hasRule(String name) {
+        return findRule(name) != null;
+    }
+
+    private Rule findRule(String name) {
+        for (int i = rules.size() - 1; i >= 0; i--) {
+            Rule rule = rules.get(i);
+            if (rule.matches(name)) {
+                return rule;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 宿主条目的数据对齐字节数，至少为4K
+     * <p>
+     * 内部条目在宿主中已按规则对齐时，宿主条目的数据也要按同样的字节数对齐，内部条目在外部文件中才能保持对齐
+     *
+     * @param inner 宿主条目的内容
+     */
+    public int getHostAlignment(ZipFile inner) {
+        int alignment = PAGE_ALIGNMENT_4K;
+        for (ZipEntry entry : inner.entries()) {
+            if (entry.getMethod() != ZipConstant.METHOD_STORED || entry.isDirectory()) {
+                continue;
+            }
+            int entryAlignment = getAlignment(entry.getName());
+            if (entryAlignment > alignment && entry.getDataOffset() % entryAlignment == 0) {
+                alignment = entryAlignment;
+            }
+        }
+        return alignment;
+    }
+
+    @Override
+    public String toString() {
+        return "AlignmentPolicy" + rules;
+    }
+
+    private static class Rule {
+        final GlobPattern pattern;
+        final int alignment;
+
+        Rule(String glob, int alignment) {
+            this.pattern = new GlobPattern(glob);
+            this.alignment = alignment;
+        }
+
+        boolean matches(String name) {
+            return pattern.matches(name);
+        }
+
+        @Override
+        public String toString() {
+            return pattern + "=" + alignment;
+        }
+    }
+
+}
@@ -0,0 +1,153 @@
+package bin.zip;
+
+import bin.io.BufferPool;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * 在ByteBuffer之间解压数据
+ * <p>
+ * Java 11开始Inflater支持直接读写ByteBuffer，运行环境支持时直接使用，
+ * 否则通过一个较小的中转数组解压。
+ *
+ * @author Bin
+ */
+class ByteBufferInflater {
+    private static final MethodHandle SET_INPUT;
+    private static final MethodHandle INFLATE;
+
+    static {
+        MethodHandle setInput = null;
+        MethodHandle inflate = null;
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            setInput = lookup.findVirtual(Inflater.class, "setInput",
+                    MethodType.methodType(void.class, ByteBuffer.class));
+            inflate = lookup.findVirtual(Inflater.class, "inflate",
+                    MethodType.methodType(int.class, ByteBuffer.class));
+        } catch (ReflectiveOperationException ignored) {
+            setInput = null;
+        }
+        SET_INPUT = setInput;
+        INFLATE = inflate;
+    }
+
+    /**
+     * 将src中的压缩数据解压到dst，完成后src与dst的position均会前移
+     *
+     * @return 解压后的数据长度
+     */
+    static int inflate(Inflater inflater, ByteBuffer src, ByteBuffer dst, String name) throws IOException {
+        int start = dst.position();
+        boolean overflow;
+        try {
+            if (SET_INPUT != null) {
+                overflow = inflateDirect(inflater, src, dst);
+            } else {
+                overflow = inflateByArray(inflater, src, dst);
+            }
+        } catch (DataFormatException e) {
+            throw new ZipException("Error: " + e.getMessage() + " (" + name + ")");
+        }
+        if (overflow || !inflater.finished()) {
+            throw new ZipException((overflow || !dst.hasRemaining() ? "Buffer too small" : "Unexpected end of entry") + " (" + name + ")");
+        }
+        return dst.position() - start;
+    }
+
+    /**
+     * @return 解压出的数据超出了dst
+     */
+    private static boolean inflateDirect(Inflater inflater, ByteBuffer src, ByteBuffer dst) throws DataFormatException {
+        try {
+            SET_INPUT.invokeExact(inflater, src);
+            byte[] probe = new byte[1];
+            while (!inflater.finished()) {
+                if (!dst.hasRemaining()) {
+                    if (inflater.inflate(probe) != 0) {
+                        return true;
+                    }
+                    if (inflater.needsInput() || inflater.needsDictionary()) {
+                        break;
+                    }
+                    continue;
+                }
+                int n = (int) INFLATE.invokeExact(inflater, dst);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+            }
+            return false;
+        } catch (DataFormatException | RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static boolean inflateByArray(Inflater inflater, ByteBuffer src, ByteBuffer dst) throws DataFormatException {
+        byte[] input = BufferPool.acquire(8 * 1024);
+        byte[] output = dst.hasArray() ? null : BufferPool.acquire(8 * 1024);
+        try {
+            return inflateByArray(inflater, src, dst, input, output);
+        } finally {
+            BufferPool.release(input);
+            BufferPool.release(output);
+        }
+    }
+
+    /**
+     * dst写满后继续解压，直到处理完最后的结束符，体积为0的条目或数据恰好填满dst时结束符可能还未处理
+     *
+     * @return 解压出的数据超出了dst
+     */
+    private static boolean inflateByArray(Inflater inflater, ByteBuffer src, ByteBuffer dst,
+                                          byte[] input, byte[] output) throws DataFormatException {
+        boolean overflow = false;
+        byte[] probe = new byte[1];
+        while (!inflater.finished()) {
+            if (!dst.hasRemaining()) {
+                // 输入已全部读取时needsInput也为true，需要先尝试处理剩余的比特
+                if (inflater.inflate(probe) != 0) {
+                    overflow = true;
+                    break;
+                }
+                if (inflater.finished() || inflater.needsDictionary()) {
+                    break;
+                }
+            }
+            if (inflater.needsInput()) {
+                int len = Math.min(src.remaining(), input.length);
+                if (len == 0) {
+                    break;
+                }
+                src.get(input, 0, len);
+                inflater.setInput(input, 0, len);
+            }
+            int n;
+            if (!dst.hasRemaining()) {
+                continue;
+            } else if (output == null) {
+                n = inflater.inflate(dst.array(), dst.arrayOffset() + dst.position(), dst.remaining());
+                dst.position(dst.position() + n);
+            } else {
+                n = inflater.inflate(output, 0, Math.min(output.length, dst.remaining()));
+                dst.put(output, 0, n);
+            }
+            if (n == 0 && inflater.needsDictionary()) {
+                break;
+            }
+        }
+        // 归还多读的输入
+        src.position(src.position() - inflater.getRemaining());
+        return overflow;
+    }
+
+}
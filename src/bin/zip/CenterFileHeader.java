@@ -22,6 +22,14 @@ class CenterFileHeader implements Comparable<CenterFileHeader> {
     boolean isDirectory;
     boolean isUtf8;
     boolean isHost;
+    /**
+     * 存储条目数据的对齐字节数，为0时按对齐规则，宿主条目与共享数据的条目会单独指定
+     */
+    int alignment;
+    /**
+     * 本地文件头之后、数据之前嵌套的其它文件头的长度，计入扩展字段
+     */
+    int nestedLength;
     boolean sizeNeedZip64;
     boolean offsetNeedZip64;
 
@@ -41,7 +49,7 @@ class CenterFileHeader implements Comparable<CenterFileHeader> {
         nameStr = entry.getName();
         name = entry.getName().getBytes(ZipConstant.UTF_8);
         isUtf8 = true;
-        time = (int) ZipUtil.javaToDosTime(entry.getTime());
+        time = entry.getDosTime();
         method = entry.getMethod();
         crc = entry.getCrc();
         compressedSize = entry.getCompressedSize();
@@ -58,7 +66,7 @@ class CenterFileHeader implements Comparable<CenterFileHeader> {
     }
 
     boolean isEncrypted() {
-        return (generalPurposeFlag & 1) != 0;
+        return (generalPurposeFlag & ZipConstant.ENCRYPTED_FLAG) != 0;
     }
 
     int version() {
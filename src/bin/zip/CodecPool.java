@@ -0,0 +1,63 @@
+package bin.zip;
+
+import bin.io.BoundedPool;
+
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 全局共享的Inflater、Deflater与CRC32池
+ * <p>
+ * Inflater与Deflater均为nowrap模式，归还时重置，超出池容量的实例会立即调用end()释放本地内存。
+ *
+ * @author Bin
+ */
+public class CodecPool {
+    private static final int CAPACITY = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+
+    private static final BoundedPool<Inflater> INFLATERS =
+            new BoundedPool<>(CAPACITY, () -> new Inflater(true), Inflater::end);
+    private static final BoundedPool<Deflater> DEFLATERS =
+            new BoundedPool<>(CAPACITY, () -> new Deflater(Deflater.DEFAULT_COMPRESSION, true), Deflater::end);
+    private static final BoundedPool<CRC32> CRC32S =
+            new BoundedPool<>(CAPACITY, CRC32::new, null);
+
+    private CodecPool() {
+    }
+
+    public static Inflater acquireInflater() {
+        return INFLATERS.acquire();
+    }
+
+    public static void releaseInflater(Inflater inflater) {
+        inflater.reset();
+        INFLATERS.release(inflater);
+    }
+
+    public static Deflater acquireDeflater(int level) {
+        return acquireDeflater(level, Deflater.DEFAULT_STRATEGY);
+    }
+
+    public static Deflater acquireDeflater(int level, int strategy) {
+        Deflater deflater = DEFLATERS.acquire();
+        deflater.setLevel(level);
+        deflater.setStrategy(strategy);
+        return deflater;
+    }
+
+    public static void releaseDeflater(Deflater deflater) {
+        deflater.reset();
+        DEFLATERS.release(deflater);
+    }
+
+    public static CRC32 acquireCrc32() {
+        return CRC32S.acquire();
+    }
+
+    public static void releaseCrc32(CRC32 crc32) {
+        crc32.reset();
+        CRC32S.release(crc32);
+    }
+
+}
@@ -0,0 +1,83 @@
+package bin.zip;
+
+import java.util.zip.Deflater;
+
+/**
+ * 条目的压缩方式、压缩等级与压缩策略
+ *
+ * @author Bin
+ */
+public final class Compression {
+    public static final Compression STORED = new Compression(ZipConstant.METHOD_STORED, 0, Deflater.DEFAULT_STRATEGY);
+
+    private final int method;
+    private final int level;
+    private final int strategy;
+
+    private Compression(int method, int level, int strategy) {
+        this.method = method;
+        this.level = level;
+        this.strategy = strategy;
+    }
+
+    public static Compression deflated(int level) {
+        return deflated(level, Deflater.DEFAULT_STRATEGY);
+    }
+
+    /**
+     * @param strategy {@link Deflater#DEFAULT_STRATEGY}、{@link Deflater#FILTERED} 或 {@link Deflater#HUFFMAN_ONLY}
+     */
+    public static Compression deflated(int level, int strategy) {
+        return new Compression(ZipConstant.METHOD_DEFLATED, level, strategy);
+    }
+
+    public int getMethod() {
+        return method;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public int getStrategy() {
+        return strategy;
+    }
+
+    public boolean isStored() {
+        return method == ZipConstant.METHOD_STORED;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Compression)) {
+            return false;
+        }
+        Compression that = (Compression) o;
+        return method == that.method && level == that.level && strategy == that.strategy;
+    }
+
+    @Override
+    public int hashCode() {
+        return (method * 31 + level) * 31 + strategy;
+    }
+
+    @Override
+    public String toString() {
+        if (isStored()) {
+            return "stored";
+        }
+        String levelName = level == Deflater.DEFAULT_COMPRESSION ? "default" : String.valueOf(level);
+        switch (strategy) {
+            case Deflater.FILTERED:
+                return "deflated(" + levelName + ", filtered)";
+            case Deflater.HUFFMAN_ONLY:
+                return "deflated(huffman)";
+            default:
+                return "deflated(" + levelName + ")";
+        }
+    }
+
+}
@@ -0,0 +1,31 @@
+package bin.zip;
+
+/**
+ * 为每个条目选择存储或压缩以及压缩等级，只在ZipMaker的压缩方式为DEFLATED时使用
+ *
+ * @author Bin
+ * @see ZipMaker#setCompressionPolicy(CompressionPolicy)
+ * @see DefaultCompressionPolicy
+ */
+public interface CompressionPolicy {
+    /**
+     * 采样的最大长度
+     */
+    int SAMPLE_SIZE = 64 * 1024;
+
+    /**
+     * @param name         条目名称
+     * @param sample       条目开头的数据，通过 {@link ZipMaker#putNextEntry} 写入的条目无法采样，此时为null
+     * @param sampleLength 采样数据的长度，条目不足 {@link #SAMPLE_SIZE} 时即为条目的全部数据
+     * @param level        ZipMaker当前的压缩等级
+     */
+    Compression choose(String name, byte[] sample, int sampleLength, int level);
+
+    /**
+     * 压缩完成后调用，返回false时条目改为存储
+     * <p>
+     * 需要重新读取条目内容，只对通过 {@link ZipMaker#submitEntry} 添加的条目有效
+     */
+    boolean accept(String name, long size, long compressedSize);
+
+}
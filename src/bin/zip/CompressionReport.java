@@ -0,0 +1,104 @@
+package bin.zip;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 穷举压缩时每个条目相对基准压缩方式节省的体积
+ *
+ * @author Bin
+ * @see ZipMaker#setExhaustiveCompression(List)
+ */
+public class CompressionReport {
+    private final Compression baseline;
+    private final List<Entry> entries = new ArrayList<>();
+
+    CompressionReport(Compression baseline) {
+        this.baseline = baseline;
+    }
+
+    void add(String name, long size, long baselineSize, long compressedSize, Compression compression) {
+        entries.add(new Entry(name, size, baselineSize, compressedSize, compression));
+    }
+
+    public Compression getBaseline() {
+        return baseline;
+    }
+
+    public List<Entry> getEntries() {
+        return Collections.unmodifiableList(entries);
+    }
+
+    /**
+     * @return 所有条目节省的总体积
+     */
+    public long getSavedBytes() {
+        long saved = 0;
+        for (Entry entry : entries) {
+            saved += entry.getSavedBytes();
+        }
+        return saved;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        long baselineTotal = 0;
+        for (Entry entry : entries) {
+            baselineTotal += entry.baselineSize;
+            sb.append(entry).append('\n');
+        }
+        sb.append(String.format(Locale.ROOT, "total: entries=%d, saved=%d bytes [%.2f%%] compared to %s",
+                entries.size(), getSavedBytes(),
+                baselineTotal == 0 ? 0 : getSavedBytes() * 100.0 / baselineTotal, baseline));
+        return sb.toString();
+    }
+
+    public static class Entry {
+        private final String name;
+        private final long size;
+        private final long baselineSize;
+        private final long compressedSize;
+        private final Compression compression;
+
+        Entry(String name, long size, long baselineSize, long compressedSize, Compression compression) {
+            this.name = name;
+            this.size = size;
+            this.baselineSize = baselineSize;
+            this.compressedSize = compressedSize;
+            this.compression = compression;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getBaselineSize() {
+            return baselineSize;
+        }
+
+        public long getCompressedSize() {
+            return compressedSize;
+        }
+
+        public Compression getCompression() {
+            return compression;
+        }
+
+        public long getSavedBytes() {
+            return baselineSize - compressedSize;
+        }
+
+        @Override
+        public String toString() {
+            return name + ": " + compression + " " + baselineSize + " -> " + compressedSize + " (saved " + getSavedBytes() + ")";
+        }
+    }
+
+}
@@ -9,8 +9,9 @@ import java.util.zip.CRC32;
  */
 public class CrcOutputStream extends OutputStream {
     private OutputStream os;
-    private CRC32 crc32 = new CRC32();
+    private CRC32 crc32 = CodecPool.acquireCrc32();
     private long count = 0;
+    private int crc;
 
     public CrcOutputStream(OutputStream os) {
         this.os = os;
@@ -35,11 +36,19 @@ public class CrcOutputStream extends OutputStream {
     }
 
     public int getCrc() {
-        return (int) crc32.getValue();
+        return crc32 == null ? crc : (int) crc32.getValue();
     }
 
     @Override
     public void close() throws IOException {
-        os.close();
+        try {
+            os.close();
+        } finally {
+            if (crc32 != null) {
+                crc = (int) crc32.getValue();
+                CodecPool.releaseCrc32(crc32);
+                crc32 = null;
+            }
+        }
     }
 }
@@ -4,9 +4,14 @@ import bin.mt.apksign.V2V3SchemeSigner;
 import bin.mt.apksign.key.JksSignatureKey;
 
 import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
 import java.text.DecimalFormat;
 import java.util.*;
 
@@ -18,6 +23,7 @@ public class DataMultiplexing {
         optimize(input, output, "assets/base.apk", true);
         V2V3SchemeSigner.sign(output, new JksSignatureKey("test.jks", "123456", "123456", "123456"), true, true);
         System.out.println("Check " + isZipFileContentEquals(input, output));
+        System.out.println("Write modes check " + checkWriteModes(output));
     }
 
     /**
@@ -37,21 +43,93 @@ public class DataMultiplexing {
      * @param printDetails  是否打印优化详情
      */
     public static void optimize(File input, File output, String hostEntryName, boolean printDetails) throws IOException {
+        optimize(input, output, hostEntryName, printDetails, AlignmentPolicy.PAGE_4K);
+    }
+
+    /**
+     * @param input           输入文件
+     * @param output          输出文件
+     * @param hostEntryName   原包路径，如 assets/base.apk
+     * @param printDetails    是否打印优化详情
+     * @param alignmentPolicy 存储条目的对齐规则，原包中未按此对齐的条目不会被复用，其它重载使用 {@link AlignmentPolicy#PAGE_4K}
+     */
+    public static void optimize(File input, File output, String hostEntryName, boolean printDetails, AlignmentPolicy alignmentPolicy) throws IOException {
+        optimize(input, output, hostEntryName, printDetails, alignmentPolicy, null);
+    }
+
+    /**
+     * @param input           输入文件
+     * @param output          输出文件
+     * @param hostEntryName   原包路径，如 assets/base.apk
+     * @param printDetails    是否打印优化详情
+     * @param alignmentPolicy 存储条目的对齐规则，原包中未按此对齐的条目不会被复用
+     * @param entryOrder      未被复用的条目的写入顺序，宿主条目总是在最前面，为null时保持原顺序。
+     *                        调整顺序可能改变对齐填充，输出体积可能变大，其它重载均保持原顺序
+     */
+    public static void optimize(File input, File output, String hostEntryName, boolean printDetails, AlignmentPolicy alignmentPolicy, EntryOrder entryOrder) throws IOException {
+        optimize(input, output, hostEntryName, printDetails, alignmentPolicy, entryOrder, false);
+    }
+
+    /**
+     * @param input           输入文件
+     * @param output          输出文件
+     * @param hostEntryName   原包路径，如 assets/base.apk
+     * @param printDetails    是否打印优化详情
+     * @param alignmentPolicy 存储条目的对齐规则，原包中未按此对齐的条目不会被复用
+     * @param entryOrder      未被复用的条目的写入顺序，宿主条目总是在最前面，为null时保持原顺序
+     * @param shareDuplicates 未被复用的条目中内容相同的条目是否只写入一份数据，见 {@link ZipMaker#copySharedEntries(List, ZipFile)}。
+     *                        输出不是标准的ZIP结构，ZipInputStream等按顺序读取的实现会漏掉共用数据的条目，其它重载均不开启
+     */
+    public static void optimize(File input, File output, String hostEntryName, boolean printDetails, AlignmentPolicy alignmentPolicy,
+                                EntryOrder entryOrder, boolean shareDuplicates) throws IOException {
+        optimize(input, output, hostEntryName, printDetails, alignmentPolicy, entryOrder, shareDuplicates, false);
+    }
+
+    /**
+     * @param input           输入文件
+     * @param output          输出文件
+     * @param hostEntryName   原包路径，如 assets/base.apk
+     * @param printDetails    是否打印优化详情
+     * @param alignmentPolicy 存储条目的对齐规则，原包中未按此对齐的条目不会被复用
+     * @param entryOrder      未被复用的条目的写入顺序，宿主条目总是在最前面，为null时保持原顺序
+     * @param shareDuplicates 未被复用的条目中内容相同的条目是否只写入一份数据
+     * @param deterministic   是否开启确定性模式，见 {@link ZipMaker#setDeterministic(int)}。开启后宿主条目沿用原包中该条目的时间，
+     *                        相同的输入总是得到完全相同的输出，其它重载均不开启，宿主条目使用当前时间
+     */
+    public static void optimize(File input, File output, String hostEntryName, boolean printDetails, AlignmentPolicy alignmentPolicy,
+                                EntryOrder entryOrder, boolean shareDuplicates, boolean deterministic) throws IOException {
         try (ZipFile zipFile = new ZipFile(input)) {
             ZipEntry hostEntry = zipFile.getEntryNonNull(hostEntryName);
             Set<String> children = new TreeSet<>();
-            // 返回的innerZipFile已经close了，但内部的entries还在
-            ZipFile innerZipFile = collectChildren(zipFile, hostEntry, children);
+            // 返回的innerZipFile与zipFile共用文件句柄，由zipFile负责关闭
+            ZipFile innerZipFile = collectChildren(zipFile, hostEntry, children, alignmentPolicy);
             if (innerZipFile == null) {
                 throw new IOException("No multiplexable data found");
             }
             List<ZipEntry> otherZipEntry = new ArrayList<>();
-            for (ZipEntry entry : zipFile.getEntries()) {
+            for (ZipEntry entry : zipFile.entries()) {
                 if (entry != hostEntry && !children.contains(entry.getName())) {
                     otherZipEntry.add(entry);
                 }
             }
+            if (entryOrder != null) {
+                entryOrder.sort(otherZipEntry);
+            }
+            List<List<ZipEntry>> groups;
+            if (shareDuplicates) {
+                groups = groupDuplicates(zipFile, otherZipEntry);
+                printSharedGroups(groups, printDetails);
+            } else {
+                groups = new ArrayList<>(otherZipEntry.size());
+                for (ZipEntry entry : otherZipEntry) {
+                    groups.add(Collections.singletonList(entry));
+                }
+            }
             try (ZipMaker zipMaker = new ZipMaker(output)) {
+                if (deterministic) {
+                    zipMaker.setDeterministic(hostEntry.getDosTime());
+                }
+                zipMaker.setAlignmentPolicy(alignmentPolicy);
                 ZipMaker.HostEntryHolder holder = zipMaker.putNextHostEntry(hostEntry.getName(), innerZipFile);
                 String format = "%0" + Math.min(Long.toHexString(hostEntry.getSize()).length(), 9) + "x";
                 if (printDetails) {
@@ -63,8 +141,10 @@ public class DataMultiplexing {
                         System.out.println("  +0x" + String.format(format, offset) + "  " + name);
                     }
                 }
-                for (ZipEntry entry : otherZipEntry) {
-                    zipMaker.copyZipEntry(entry, zipFile);
+                if (entryOrder != null) {
+                    copyEntriesFillingPadding(zipMaker, zipFile, groups, entryOrder, alignmentPolicy);
+                } else {
+                    copyGroups(zipMaker, zipFile, groups);
                 }
             }
         }
@@ -81,7 +161,7 @@ public class DataMultiplexing {
             if (zipFile1.getEntrySize() != zipFile2.getEntrySize()) {
                 return false;
             }
-            for (ZipEntry entry1 : zipFile1.getEntries()) {
+            for (ZipEntry entry1 : zipFile1.entries()) {
                 ZipEntry entry2 = zipFile2.getEntry(entry1.getName());
                 if (entry2 == null) {
                     return false;
@@ -109,9 +189,295 @@ public class DataMultiplexing {
         }
     }
 
-    private static ZipFile collectChildren(ZipFile outer, ZipEntry hostEntry, Set<String> children) throws IOException {
+    /**
+     * 用file中的条目检查ZipMaker的各种写入方式
+     * <p>
+     * 串行写入与多条目并行写入、流式并行写入的结果逐字节相同，串行复制与按布局并行复制的结果逐字节相同，
+     * 所有输出均能通过 {@link ZipFile#verify()}，随机定位读取 {@link SeekableEntryInputStream} 与完整解压的内容相同
+     */
+    public static boolean checkWriteModes(File file) throws IOException {
+        List<File> temps = new ArrayList<>();
+        try (ZipFile zipFile = new ZipFile(file, true)) {
+            File serial = createTempFile(temps);
+            try (ZipMaker zipMaker = new ZipMaker(serial)) {
+                zipMaker.setCrcParallelism(1);
+                writeEntries(zipMaker, zipFile, false);
+            }
+            File parallel = createTempFile(temps);
+            try (ZipMaker zipMaker = new ZipMaker(parallel)) {
+                zipMaker.setParallelism(4);
+                writeEntries(zipMaker, zipFile, true);
+            }
+            // 流式输出时通过putNextEntry写入的压缩条目带有data descriptor，提交的条目预先知道CRC与体积，与串行写入相同
+            File streaming = createTempFile(temps);
+            try (ZipMaker zipMaker = new ZipMaker(new FileOutputStream(streaming))) {
+                zipMaker.setParallelism(4);
+                writeEntries(zipMaker, zipFile, true);
+            }
+            if (!isFileContentEquals(serial, parallel) || !isFileContentEquals(serial, streaming)) {
+                return false;
+            }
+            File copy = createTempFile(temps);
+            File layoutCopy = createTempFile(temps);
+            try (ZipFile source = new ZipFile(serial, true)) {
+                try (ZipMaker zipMaker = new ZipMaker(copy)) {
+                    zipMaker.copyZipEntries(source.entries(), source);
+                }
+                try (ZipMaker zipMaker = new ZipMaker(layoutCopy)) {
+                    zipMaker.copyZipEntries(source.entries(), source, 4);
+                }
+            }
+            if (!isFileContentEquals(copy, layoutCopy)) {
+                return false;
+            }
+            for (File temp : temps) {
+                try (ZipFile output = new ZipFile(temp)) {
+                    if (!output.verify().isOk()) {
+                        return false;
+                    }
+                }
+            }
+            try (ZipFile output = new ZipFile(serial)) {
+                return isSeekableReadEquals(output, new Random(0));
+            }
+        } finally {
+            for (File temp : temps) {
+                //noinspection ResultOfMethodCallIgnored
+                temp.delete();
+            }
+        }
+    }
+
+    private static File createTempFile(List<File> temps) throws IOException {
+        File temp = File.createTempFile("check", ".zip");
+        temps.add(temp);
+        return temp;
+    }
+
+    /**
+     * 重新写入所有条目，压缩与存储方式交替使用
+     *
+     * @param submit 是否通过 {@link ZipMaker#submitEntry(String, EntrySource)} 写入
+     */
+    private static void writeEntries(ZipMaker zipMaker, ZipFile zipFile, boolean submit) throws IOException {
+        zipMaker.setDeterministic(true);
+        int i = 0;
+        for (ZipEntry entry : zipFile.entries()) {
+            zipMaker.setMethod(i++ % 2 == 0 ? ZipMaker.METHOD_DEFLATED : ZipMaker.METHOD_STORED);
+            if (entry.isDirectory()) {
+                zipMaker.putNextEntry(entry.getName());
+            } else if (submit) {
+                zipMaker.submitEntry(entry.getName(), EntrySource.of(zipFile, entry));
+            } else {
+                zipMaker.putNextEntry(entry.getName());
+                try (InputStream is = zipFile.getInputStream(entry)) {
+                    zipMaker.writeFully(is);
+                }
+            }
+        }
+    }
+
+    /**
+     * 在每个条目中随机定位读取，与完整解压的内容比较
+     */
+    private static boolean isSeekableReadEquals(ZipFile zipFile, Random random) throws IOException {
+        byte[] buffer = new byte[1024];
+        for (ZipEntry entry : zipFile.entries()) {
+            if (entry.isDirectory()) {
+                continue;
+            }
+            ByteArrayOutputStream bos = new ByteArrayOutputStream((int) entry.getSize());
+            try (InputStream is = zipFile.getInputStream(entry)) {
+                int len;
+                while ((len = is.read(buffer)) > 0) {
+                    bos.write(buffer, 0, len);
+                }
+            }
+            byte[] data = bos.toByteArray();
+            // 检查点间隔较小，使定位经过多个检查点
+            DeflateIndex index = entry.getMethod() == ZipMaker.METHOD_STORED ? null : zipFile.buildDeflateIndex(entry, 4096);
+            try (SeekableEntryInputStream is = zipFile.getSeekableInputStream(entry, index)) {
+                for (int i = 0; i < 32; i++) {
+                    int position = random.nextInt(data.length + 1);
+                    int length = Math.min(buffer.length, data.length - position);
+                    is.seek(position);
+                    new DataInputStream(is).readFully(buffer, 0, length);
+                    for (int j = 0; j < length; j++) {
+                        if (buffer[j] != data[position + j]) {
+                            return false;
+                        }
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    private static boolean isFileContentEquals(File file1, File file2) throws IOException {
+        return Arrays.equals(Files.readAllBytes(file1.toPath()), Files.readAllBytes(file2.toPath()));
+    }
+
+    /**
+     * 按内容分组，每组按第一个条目的位置排列，组内保持原顺序
+     * <p>
+     * 先按压缩方式、CRC与体积分组，再比较原始数据
+     */
+    private static List<List<ZipEntry>> groupDuplicates(ZipFile zipFile, List<ZipEntry> entries) throws IOException {
+        Map<List<Long>, List<List<ZipEntry>>> candidates = new HashMap<>();
+        List<List<ZipEntry>> groups = new ArrayList<>(entries.size());
+        for (ZipEntry entry : entries) {
+            if (entry.isDirectory() || entry.getCompressedSize() == 0) {
+                groups.add(Collections.singletonList(entry));
+                continue;
+            }
+            List<Long> key = Arrays.asList((long) entry.getMethod(), (long) entry.getCrc(), entry.getSize(), entry.getCompressedSize());
+            List<List<ZipEntry>> sameKey = candidates.computeIfAbsent(key, k -> new ArrayList<>(1));
+            List<ZipEntry> group = null;
+            for (List<ZipEntry> candidate : sameKey) {
+                if (isRawContentEquals(zipFile, candidate.get(0), zipFile, entry)) {
+                    group = candidate;
+                    break;
+                }
+            }
+            if (group == null) {
+                group = new ArrayList<>(1);
+                sameKey.add(group);
+                groups.add(group);
+            }
+            group.add(entry);
+        }
+        return groups;
+    }
+
+    private static void printSharedGroups(List<List<ZipEntry>> groups, boolean printDetails) {
+        int sharedEntries = 0;
+        long savedBytes = 0;
+        for (List<ZipEntry> group : groups) {
+            if (group.size() < 2) {
+                continue;
+            }
+            sharedEntries += group.size() - 1;
+            savedBytes += (group.size() - 1) * group.get(0).getCompressedSize();
+            if (printDetails) {
+                System.out.println(group.get(0).getName() + " >> size=" + group.get(0).getCompressedSize());
+                for (int i = 1; i < group.size(); i++) {
+                    System.out.println("  = " + group.get(i).getName());
+                }
+            }
+        }
+        System.out.println("Shared duplicate entries: " + sharedEntries + ", saved " + formatFileSize(savedBytes));
+    }
+
+    /**
+     * 按顺序写入各组，连续的单个条目一起复制，见 {@link ZipMaker#copyZipEntries(List, ZipFile)}
+     */
+    private static void copyGroups(ZipMaker zipMaker, ZipFile zipFile, List<List<ZipEntry>> groups) throws IOException {
+        List<ZipEntry> batch = new ArrayList<>();
+        for (List<ZipEntry> group : groups) {
+            if (group.size() == 1) {
+                batch.add(group.get(0));
+                continue;
+            }
+            zipMaker.copyZipEntries(batch, zipFile);
+            batch.clear();
+            zipMaker.copySharedEntries(group, zipFile);
+        }
+        zipMaker.copyZipEntries(batch, zipFile);
+    }
+
+    private static void copyGroup(ZipMaker zipMaker, ZipFile zipFile, List<ZipEntry> group) throws IOException {
+        if (group.size() == 1) {
+            zipMaker.copyZipEntry(group.get(0), zipFile);
+        } else {
+            zipMaker.copySharedEntries(group, zipFile);
+        }
+    }
+
+    /**
+     * 按顺序复制条目，需要按页对齐的存储条目前面的填充处放入排在后面的、没有顺序要求的较小条目
+     * <p>
+     * 调整顺序后这类条目的位置会变化，不填充时排序可能增加对齐填充的体积
+     *
+     * @param groups 共享数据的条目为一组，其余条目单独一组
+     */
+    private static void copyEntriesFillingPadding(ZipMaker zipMaker, ZipFile zipFile, List<List<ZipEntry>> groups,
+                                                  EntryOrder entryOrder, AlignmentPolicy alignmentPolicy) throws IOException {
+        LinkedList<List<ZipEntry>> remaining = new LinkedList<>(groups);
+        // 连续的单个条目一起复制
+        List<ZipEntry> batch = new ArrayList<>();
+        while (!remaining.isEmpty()) {
+            List<ZipEntry> group = remaining.removeFirst();
+            int alignment = 1;
+            for (ZipEntry entry : group) {
+                alignment = Math.max(alignment, getAlignment(entry, alignmentPolicy));
+            }
+            if (group.size() == 1 && alignment <= AlignmentPolicy.DEFAULT_ALIGNMENT) {
+                batch.add(group.get(0));
+                continue;
+            }
+            zipMaker.copyZipEntries(batch, zipFile);
+            batch.clear();
+            if (alignment > AlignmentPolicy.DEFAULT_ALIGNMENT) {
+                long dataOffset = zipMaker.getFilePointer();
+                for (ZipEntry entry : group) {
+                    dataOffset += LFH_FIXED_SIZE + nameLength(entry) + ExtraDataRecord.trim(entry.getExtra()).length;
+                }
+                long padding = (alignment - dataOffset % alignment) % alignment;
+                Iterator<List<ZipEntry>> iterator = remaining.iterator();
+                while (iterator.hasNext() && padding > 0) {
+                    List<ZipEntry> fillerGroup = iterator.next();
+                    if (fillerGroup.size() != 1) {
+                        continue;
+                    }
+                    ZipEntry filler = fillerGroup.get(0);
+                    if (entryOrder.getRank(filler.getName()) != -1
+                            || getAlignment(filler, alignmentPolicy) > AlignmentPolicy.DEFAULT_ALIGNMENT) {
+                        continue;
+                    }
+                    long size = maxCopySize(filler);
+                    if (size <= padding) {
+                        zipMaker.copyZipEntry(filler, zipFile);
+                        padding -= size;
+                        iterator.remove();
+                    }
+                }
+            }
+            copyGroup(zipMaker, zipFile, group);
+        }
+        zipMaker.copyZipEntries(batch, zipFile);
+    }
+
+    private static final int LFH_FIXED_SIZE = 30;
+    private static final int ZIP64_LOCAL_EXTRA_SIZE = 4 + 16;
+
+    private static int getAlignment(ZipEntry entry, AlignmentPolicy alignmentPolicy) {
+        if (entry.getMethod() != ZipMaker.METHOD_STORED || entry.isDirectory()) {
+            return 1;
+        }
+        return alignmentPolicy.getAlignment(entry.getName());
+    }
+
+    private static int nameLength(ZipEntry entry) {
+        return entry.getName().getBytes(ZipConstant.UTF_8).length;
+    }
+
+    /**
+     * @return 复制后占用体积的上限，包括文件头、按4字节对齐的填充与数据
+     */
+    private static long maxCopySize(ZipEntry entry) {
+        long size = LFH_FIXED_SIZE + nameLength(entry) + entry.getExtra().length + entry.getCompressedSize();
+        if (entry.getCompressedSize() >= 0xffffffffL || entry.getSize() >= 0xffffffffL) {
+            size += ZIP64_LOCAL_EXTRA_SIZE;
+        }
+        if (entry.getMethod() == ZipMaker.METHOD_STORED) {
+            size += AlignmentPolicy.DEFAULT_ALIGNMENT - 1;
+        }
+        return size;
+    }
+
+    private static ZipFile collectChildren(ZipFile outer, ZipEntry hostEntry, Set<String> children, AlignmentPolicy alignmentPolicy) throws IOException {
         try (ZipFile inner = openEntryAsZipFile(outer, hostEntry)) {
-            for (ZipEntry outerEntry : outer.getEntries()) {
+            for (ZipEntry outerEntry : outer.entries()) {
                 if (outerEntry == hostEntry || outerEntry.isDirectory()) {
                     continue;
                 }
@@ -131,18 +497,15 @@ public class DataMultiplexing {
                 if (!Arrays.equals(outerEntry.getCommentData(), innerEntry.getCommentData())) {
                     continue;
                 }
-                // 必须4k对齐
+                // 宿主条目按最大的对齐字节数对齐，有对齐规则的内部条目在原包中对齐即可
                 if (innerEntry.getMethod() == ZipMaker.METHOD_STORED) {
                     String name = innerEntry.getName();
-                    if (name.equals("resources.arsc") && innerEntry.getDataOffset() % 4 != 0) {
-                        continue;
-                    }
-                    if (name.endsWith(".so") && innerEntry.getDataOffset() % 4096 != 0) {
+                    if (alignmentPolicy.hasRule(name) && innerEntry.getDataOffset() % alignmentPolicy.getAlignment(name) != 0) {
                         continue;
                     }
                 }
                 boolean equals = outerEntry.getCompressedSize() == innerEntry.getCompressedSize() &&
-                        isInputStreamContentEquals(inner.getRawInputStream(innerEntry), outer.getRawInputStream(outerEntry)) ||
+                        isRawContentEquals(inner, innerEntry, outer, outerEntry) ||
                         isInputStreamContentEquals(inner.getInputStream(innerEntry), outer.getInputStream(outerEntry));
                 if (equals) {
                     children.add(innerEntry.getName());
@@ -154,12 +517,25 @@ public class DataMultiplexing {
 
     private static ZipFile openEntryAsZipFile(ZipFile zipFile, ZipEntry hostEntry) throws IOException {
         if (hostEntry.getMethod() == ZipMaker.METHOD_STORED) {
-            return zipFile.openEntryAsZipFile(hostEntry);
+            return zipFile.open(hostEntry.getName());
         } else {
             throw new IOException("Entry must be packaged with the stored method: " + hostEntry.getName());
         }
     }
 
+    static boolean isRawContentEquals(ZipFile zipFile1, ZipEntry entry1, ZipFile zipFile2, ZipEntry entry2) throws IOException {
+        ByteBuffer buffer1;
+        ByteBuffer buffer2;
+        try {
+            buffer1 = zipFile1.getRawByteBuffer(entry1);
+            buffer2 = zipFile2.getRawByteBuffer(entry2);
+        } catch (IOException e) {
+            // 无法映射时按流比较
+            return isInputStreamContentEquals(zipFile1.getRawInputStream(entry1), zipFile2.getRawInputStream(entry2));
+        }
+        return buffer1.equals(buffer2);
+    }
+
     private static boolean isInputStreamContentEquals(InputStream input1, InputStream input2) throws IOException {
         if (input1 == input2) {
             return true;
@@ -0,0 +1,130 @@
+package bin.zip;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * 默认的压缩策略
+ * <ul>
+ * <li>resources.arsc必须存储，Android 11以上的系统才能直接映射</li>
+ * <li>图片、音视频、压缩包等已经压缩过的格式直接存储，扩展名列表参考aapt；
+ * 但采样数据的信息熵明显偏低时仍然压缩，如内部条目都是存储方式的压缩包</li>
+ * <li>采样数据的信息熵接近8比特时认为数据已经压缩或加密，直接存储</li>
+ * <li>压缩后节省的体积不超过 {@link #setMinSavingRatio(double)} 时改为存储</li>
+ * </ul>
+ *
+ * @author Bin
+ */
+public class DefaultCompressionPolicy implements CompressionPolicy {
+    private static final String[] STORED_EXTENSIONS = {
+            // 图片
+            ".jpg", ".jpeg", ".png", ".gif", ".webp",
+            // 音视频
+            ".wav", ".mp2", ".mp3", ".ogg", ".aac", ".mpg", ".mpeg", ".mid", ".midi", ".smf", ".jet",
+            ".rtttl", ".imy", ".xmf", ".mp4", ".m4a", ".m4v", ".3gp", ".3gpp", ".3g2", ".3gpp2",
+            ".amr", ".awb", ".wma", ".wmv", ".webm", ".mkv", ".flac", ".opus",
+            // 压缩包
+            ".zip", ".jar", ".apk", ".gz", ".xz", ".bz2", ".7z", ".br", ".zst",
+    };
+
+    /**
+     * 信息熵只在采样数据足够多时才有意义
+     */
+    private static final int MIN_ENTROPY_SAMPLE = 4096;
+
+    private final Set<String> storedExtensions = new HashSet<>(Arrays.asList(STORED_EXTENSIONS));
+    private final Set<String> storedNames = new HashSet<>(Arrays.asList("resources.arsc"));
+    private double maxEntropy = 7.5;
+    private double minStoredEntropy = 6.0;
+    private double minSavingRatio;
+
+    /**
+     * @param extension 包括点号的扩展名，如.png
+     */
+    public void addStoredExtension(String extension) {
+        storedExtensions.add(extension.toLowerCase(Locale.ROOT));
+    }
+
+    public void removeStoredExtension(String extension) {
+        storedExtensions.remove(extension.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * @param name 完整的条目名称，如resources.arsc
+     */
+    public void addStoredName(String name) {
+        storedNames.add(name);
+    }
+
+    public void removeStoredName(String name) {
+        storedNames.remove(name);
+    }
+
+    /**
+     * @param maxEntropy 每字节的信息熵超过该值时直接存储，取值0~8，默认7.5
+     */
+    public void setMaxEntropy(double maxEntropy) {
+        this.maxEntropy = maxEntropy;
+    }
+
+    /**
+     * @param minStoredEntropy 扩展名需要存储的条目，每字节的信息熵低于该值时仍然压缩，默认6.0，设为0则总是存储
+     */
+    public void setMinStoredEntropy(double minStoredEntropy) {
+        this.minStoredEntropy = minStoredEntropy;
+    }
+
+    /**
+     * @param minSavingRatio 压缩后至少节省的比例，默认0即只要压缩后更小就保留压缩
+     */
+    public void setMinSavingRatio(double minSavingRatio) {
+        if (minSavingRatio < 0 || minSavingRatio >= 1) {
+            throw new IllegalArgumentException("minSavingRatio=" + minSavingRatio);
+        }
+        this.minSavingRatio = minSavingRatio;
+    }
+
+    @Override
+    public Compression choose(String name, byte[] sample, int sampleLength, int level) {
+        if (storedNames.contains(name)) {
+            return Compression.STORED;
+        }
+        int dot = name.lastIndexOf('.');
+        boolean storedExtension = dot > name.lastIndexOf('/')
+                && storedExtensions.contains(name.substring(dot).toLowerCase(Locale.ROOT));
+        if (sample == null || sampleLength < MIN_ENTROPY_SAMPLE) {
+            return storedExtension ? Compression.STORED : Compression.deflated(level);
+        }
+        double entropy = entropy(sample, sampleLength);
+        if (entropy > maxEntropy || (storedExtension && entropy >= minStoredEntropy)) {
+            return Compression.STORED;
+        }
+        return Compression.deflated(level);
+    }
+
+    @Override
+    public boolean accept(String name, long size, long compressedSize) {
+        return compressedSize < size * (1 - minSavingRatio);
+    }
+
+    /**
+     * @return 每字节的香农熵，单位为比特
+     */
+    static double entropy(byte[] data, int len) {
+        int[] counts = new int[256];
+        for (int i = 0; i < len; i++) {
+            counts[data[i] & 0xFF]++;
+        }
+        double entropy = 0;
+        for (int count : counts) {
+            if (count > 0) {
+                double p = (double) count / len;
+                entropy -= p * Math.log(p);
+            }
+        }
+        return entropy / Math.log(2);
+    }
+
+}
@@ -0,0 +1,345 @@
+package bin.zip;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipException;
+
+/**
+ * 逐块解码raw deflate数据，用于定位数据块边界
+ * <p>
+ * 系统的Inflater无法告知数据块的边界，这里按照RFC 1951自行解码，在每个数据块开始前回调
+ * {@link BlockListener}，此时可以获取当前的比特偏移、已输出的数据量以及最近32K的输出窗口。
+ * 实现参考了zlib中的puff。
+ *
+ * @author Bin
+ */
+class DeflateBlockScanner {
+    static final int WINDOW_SIZE = 32 * 1024;
+    private static final int WINDOW_MASK = WINDOW_SIZE - 1;
+    private static final int MAX_BITS = 15;
+    private static final int MAX_LCODES = 286;
+    private static final int MAX_DCODES = 30;
+    private static final int FIX_LCODES = 288;
+
+    private static final short[] LENGTH_BASE = {
+            3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27, 31,
+            35, 43, 51, 59, 67, 83, 99, 115, 131, 163, 195, 227, 258};
+    private static final short[] LENGTH_EXTRA = {
+            0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2,
+            3, 3, 3, 3, 4, 4, 4, 4, 5, 5, 5, 5, 0};
+    private static final short[] DIST_BASE = {
+            1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97, 129, 193,
+            257, 385, 513, 769, 1025, 1537, 2049, 3073, 4097, 6145,
+            8193, 12289, 16385, 24577};
+    private static final short[] DIST_EXTRA = {
+            0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6,
+            7, 7, 8, 8, 9, 9, 10, 10, 11, 11,
+            12, 12, 13, 13};
+    private static final int[] CODE_LENGTH_ORDER = {
+            16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1, 15};
+
+    private static final Huffman FIXED_LENGTH_CODE = new Huffman(FIX_LCODES);
+    private static final Huffman FIXED_DIST_CODE = new Huffman(MAX_DCODES);
+
+    static {
+        short[] lengths = new short[FIX_LCODES];
+        int symbol = 0;
+        for (; symbol < 144; symbol++) lengths[symbol] = 8;
+        for (; symbol < 256; symbol++) lengths[symbol] = 9;
+        for (; symbol < 280; symbol++) lengths[symbol] = 7;
+        for (; symbol < FIX_LCODES; symbol++) lengths[symbol] = 8;
+        construct(FIXED_LENGTH_CODE, lengths, 0, FIX_LCODES);
+        for (symbol = 0; symbol < MAX_DCODES; symbol++) lengths[symbol] = 5;
+        construct(FIXED_DIST_CODE, lengths, 0, MAX_DCODES);
+    }
+
+    interface BlockListener {
+        /**
+         * 在每个数据块开始前调用
+         */
+        void onBlockStart(DeflateBlockScanner scanner) throws IOException;
+    }
+
+    private final InputStream in;
+    private final byte[] inBuffer = new byte[64 * 1024];
+    private int inPos;
+    private int inLen;
+    private long bytesRead;
+    private int bitBuf;
+    private int bitCnt;
+
+    private final byte[] window = new byte[WINDOW_SIZE];
+    private long out;
+    private long crcPos;
+    private final CRC32 crc32 = new CRC32();
+
+    private final Huffman lengthCode = new Huffman(MAX_LCODES);
+    private final Huffman distCode = new Huffman(MAX_DCODES);
+    private final short[] lengths = new short[MAX_LCODES + MAX_DCODES];
+
+    DeflateBlockScanner(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * 解码全部数据
+     */
+    void scan(BlockListener listener) throws IOException {
+        boolean last;
+        do {
+            listener.onBlockStart(this);
+            last = bits(1) == 1;
+            int type = bits(2);
+            switch (type) {
+                case 0:
+                    stored();
+                    break;
+                case 1:
+                    codes(FIXED_LENGTH_CODE, FIXED_DIST_CODE);
+                    break;
+                case 2:
+                    dynamic();
+                    break;
+                default:
+                    throw new ZipException("Invalid block type");
+            }
+        } while (!last);
+        flushCrc();
+    }
+
+    /**
+     * @return 已消耗的压缩数据，单位为比特
+     */
+    long getBitPosition() {
+        return bytesRead * 8 - bitCnt;
+    }
+
+    /**
+     * @return 已输出的数据量
+     */
+    long getOutputCount() {
+        return out;
+    }
+
+    /**
+     * @return 最近输出的数据，最多32K
+     */
+    byte[] getWindow() {
+        int len = (int) Math.min(out, WINDOW_SIZE);
+        byte[] result = new byte[len];
+        int start = (int) ((out - len) & WINDOW_MASK);
+        int first = Math.min(len, WINDOW_SIZE - start);
+        System.arraycopy(window, start, result, 0, first);
+        System.arraycopy(window, 0, result, first, len - first);
+        return result;
+    }
+
+    int getCrc() {
+        return (int) crc32.getValue();
+    }
+
+    private int readByte() throws IOException {
+        if (inPos == inLen) {
+            inLen = in.read(inBuffer, 0, inBuffer.length);
+            inPos = 0;
+            if (inLen <= 0) {
+                inLen = 0;
+                throw new EOFException("Unexpected end of deflate data");
+            }
+        }
+        bytesRead++;
+        return inBuffer[inPos++] & 0xFF;
+    }
+
+    private int bits(int need) throws IOException {
+        int val = bitBuf;
+        while (bitCnt < need) {
+            val |= readByte() << bitCnt;
+            bitCnt += 8;
+        }
+        bitBuf = val >>> need;
+        bitCnt -= need;
+        return val & ((1 << need) - 1);
+    }
+
+    private void put(int b) {
+        window[(int) (out & WINDOW_MASK)] = (byte) b;
+        out++;
+    }
+
+    private void flushCrc() {
+        while (crcPos < out) {
+            int start = (int) (crcPos & WINDOW_MASK);
+            int len = (int) Math.min(out - crcPos, WINDOW_SIZE - start);
+            crc32.update(window, start, len);
+            crcPos += len;
+        }
+    }
+
+    private void stored() throws IOException {
+        // 丢弃当前字节中剩余的比特
+        bitBuf = 0;
+        bitCnt = 0;
+        int len = readByte() | readByte() << 8;
+        int nlen = readByte() | readByte() << 8;
+        if (len != (~nlen & 0xFFFF)) {
+            throw new ZipException("Invalid stored block lengths");
+        }
+        while (len-- > 0) {
+            put(readByte());
+            if (out - crcPos >= WINDOW_SIZE / 2) {
+                flushCrc();
+            }
+        }
+    }
+
+    private void dynamic() throws IOException {
+        int nlen = bits(5) + 257;
+        int ndist = bits(5) + 1;
+        int ncode = bits(4) + 4;
+        if (nlen > MAX_LCODES || ndist > MAX_DCODES) {
+            throw new ZipException("Invalid code lengths");
+        }
+        int index;
+        for (index = 0; index < ncode; index++) {
+            lengths[CODE_LENGTH_ORDER[index]] = (short) bits(3);
+        }
+        for (; index < 19; index++) {
+            lengths[CODE_LENGTH_ORDER[index]] = 0;
+        }
+        if (construct(lengthCode, lengths, 0, 19) != 0) {
+            throw new ZipException("Incomplete code length code");
+        }
+        index = 0;
+        while (index < nlen + ndist) {
+            int symbol = decode(lengthCode);
+            if (symbol < 16) {
+                lengths[index++] = (short) symbol;
+            } else {
+                short len = 0;
+                int repeat;
+                if (symbol == 16) {
+                    if (index == 0) {
+                        throw new ZipException("Repeat with no first length");
+                    }
+                    len = lengths[index - 1];
+                    repeat = 3 + bits(2);
+                } else if (symbol == 17) {
+                    repeat = 3 + bits(3);
+                } else {
+                    repeat = 11 + bits(7);
+                }
+                if (index + repeat > nlen + ndist) {
+                    throw new ZipException("Too many code lengths");
+                }
+                while (repeat-- > 0) {
+                    lengths[index++] = len;
+                }
+            }
+        }
+        if (lengths[256] == 0) {
+            throw new ZipException("No end of block code");
+        }
+        int err = construct(lengthCode, lengths, 0, nlen);
+        if (err < 0 || (err > 0 && nlen - lengthCode.count[0] != 1)) {
+            throw new ZipException("Incomplete literal/length code");
+        }
+        err = construct(distCode, lengths, nlen, ndist);
+        if (err < 0 || (err > 0 && ndist - distCode.count[0] != 1)) {
+            throw new ZipException("Incomplete distance code");
+        }
+        codes(lengthCode, distCode);
+    }
+
+    private void codes(Huffman lencode, Huffman distcode) throws IOException {
+        while (true) {
+            int symbol = decode(lencode);
+            if (symbol < 256) {
+                put(symbol);
+            } else if (symbol == 256) {
+                return;
+            } else {
+                symbol -= 257;
+                if (symbol >= 29) {
+                    throw new ZipException("Invalid literal/length symbol");
+                }
+                int len = LENGTH_BASE[symbol] + bits(LENGTH_EXTRA[symbol]);
+                symbol = decode(distcode);
+                if (symbol >= MAX_DCODES) {
+                    throw new ZipException("Invalid distance symbol");
+                }
+                int dist = DIST_BASE[symbol] + bits(DIST_EXTRA[symbol]);
+                if (dist > out) {
+                    throw new ZipException("Distance too far back");
+                }
+                while (len-- > 0) {
+                    put(window[(int) ((out - dist) & WINDOW_MASK)]);
+                }
+            }
+            if (out - crcPos >= WINDOW_SIZE / 2) {
+                flushCrc();
+            }
+        }
+    }
+
+    private int decode(Huffman h) throws IOException {
+        int code = 0;
+        int first = 0;
+        int index = 0;
+        for (int len = 1; len <= MAX_BITS; len++) {
+            code |= bits(1);
+            int count = h.count[len];
+            if (code - count < first) {
+                return h.symbol[index + (code - first)];
+            }
+            index += count;
+            first += count;
+            first <<= 1;
+            code <<= 1;
+        }
+        throw new ZipException("Invalid huffman code");
+    }
+
+    private static int construct(Huffman h, short[] length, int off, int n) {
+        short[] offs = new short[MAX_BITS + 1];
+        for (int len = 0; len <= MAX_BITS; len++) {
+            h.count[len] = 0;
+        }
+        for (int symbol = 0; symbol < n; symbol++) {
+            h.count[length[off + symbol]]++;
+        }
+        if (h.count[0] == n) {
+            return 0;
+        }
+        int left = 1;
+        for (int len = 1; len <= MAX_BITS; len++) {
+            left <<= 1;
+            left -= h.count[len];
+            if (left < 0) {
+                return left;
+            }
+        }
+        offs[1] = 0;
+        for (int len = 1; len < MAX_BITS; len++) {
+            offs[len + 1] = (short) (offs[len] + h.count[len]);
+        }
+        for (int symbol = 0; symbol < n; symbol++) {
+            if (length[off + symbol] != 0) {
+                h.symbol[offs[length[off + symbol]]++] = (short) symbol;
+            }
+        }
+        return left;
+    }
+
+    private static class Huffman {
+        final short[] count = new short[MAX_BITS + 1];
+        final short[] symbol;
+
+        Huffman(int n) {
+            symbol = new short[n];
+        }
+    }
+
+}
@@ -0,0 +1,191 @@
+package bin.zip;
+
+import bin.io.BufferPool;
+import bin.io.RandomAccessFile;
+
+import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * 以内容的SHA-256、压缩等级与压缩策略为键，在磁盘上缓存条目压缩后的raw deflate数据
+ * <p>
+ * 每个缓存文件开头记录条目的CRC与原体积，命中时再次校验。缓存总体积超过上限时按最近使用时间淘汰，
+ * 最近使用时间保存在文件的修改时间中，重新打开缓存目录后依然有效。
+ *
+ * @author Bin
+ * @see ZipMaker#setDeflateCache(DeflateCache)
+ */
+public class DeflateCache {
+    private static final int MAGIC = 0x44434143; // DCAC
+    private static final int HEADER_SIZE = 4 + 4 + 8;
+    private static final String SUFFIX = ".deflate";
+
+    private final File dir;
+    private final long maxSize;
+    /**
+     * 按访问顺序排列，最久未使用的在前
+     */
+    private final LinkedHashMap<String, Long> files = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalSize;
+    private int hits;
+    private int misses;
+
+    /**
+     * @param maxSize 缓存文件的总体积上限
+     */
+    public DeflateCache(File dir, long maxSize) throws IOException {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize=" + maxSize);
+        }
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create cache directory: " + dir);
+        }
+        this.dir = dir;
+        this.maxSize = maxSize;
+        File[] list = dir.listFiles((d, name) -> name.endsWith(SUFFIX));
+        if (list != null) {
+            Arrays.sort(list, Comparator.comparingLong(File::lastModified));
+            for (File file : list) {
+                files.put(file.getName(), file.length());
+                totalSize += file.length();
+            }
+        }
+        evict();
+    }
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String fileName(byte[] digest, Compression compression) {
+        StringBuilder sb = new StringBuilder(digest.length * 2 + 16);
+        for (byte b : digest) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        sb.append('-').append(compression.getLevel()).append('-').append(compression.getStrategy()).append(SUFFIX);
+        return sb.toString();
+    }
+
+    /**
+     * 查找缓存并校验记录的CRC与原体积
+     *
+     * @return 压缩后的体积，未命中时为-1
+     */
+    synchronized long getCompressedSize(byte[] digest, int crc, long size, Compression compression) {
+        String name = fileName(digest, compression);
+        if (files.get(name) != null) {
+            File file = new File(dir, name);
+            try (DataInputStream is = new DataInputStream(new FileInputStream(file))) {
+                if (is.readInt() == MAGIC && is.readInt() == crc && is.readLong() == size) {
+                    //noinspection ResultOfMethodCallIgnored
+                    file.setLastModified(System.currentTimeMillis());
+                    hits++;
+                    return file.length() - HEADER_SIZE;
+                }
+            } catch (IOException ignored) {
+            }
+            // 文件损坏或被外部删除
+            remove(name);
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+        }
+        misses++;
+        return -1;
+    }
+
+    /**
+     * 把缓存的压缩数据写入archive，需要先通过 {@link #getCompressedSize} 确认命中
+     */
+    synchronized void copyTo(byte[] digest, Compression compression, RandomAccessFile archive) throws IOException {
+        String name = fileName(digest, compression);
+        File file = new File(dir, name);
+        try (InputStream is = new FileInputStream(file)) {
+            long remaining = file.length() - HEADER_SIZE;
+            if (is.skip(HEADER_SIZE) != HEADER_SIZE) {
+                throw new EOFException("Truncated cache file: " + name);
+            }
+            byte[] buffer = BufferPool.acquire(64 * 1024);
+            try {
+                while (remaining > 0) {
+                    int len = is.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                    if (len == -1) {
+                        throw new EOFException("Truncated cache file: " + name);
+                    }
+                    archive.write(buffer, 0, len);
+                    remaining -= len;
+                }
+            } finally {
+                BufferPool.release(buffer);
+            }
+        }
+    }
+
+    synchronized void put(byte[] digest, int crc, long size, Compression compression, SpillOutputStream data) throws IOException {
+        String name = fileName(digest, compression);
+        if (files.containsKey(name) || data.getCount() + HEADER_SIZE > maxSize) {
+            return;
+        }
+        File temp = File.createTempFile("deflate", ".tmp", dir);
+        try {
+            try (DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+                os.writeInt(MAGIC);
+                os.writeInt(crc);
+                os.writeLong(size);
+                data.writeTo(os);
+            }
+            File file = new File(dir, name);
+            if (!temp.renameTo(file)) {
+                throw new IOException("Cannot rename " + temp + " to " + file);
+            }
+            files.put(name, file.length());
+            totalSize += file.length();
+        } finally {
+            //noinspection ResultOfMethodCallIgnored
+            temp.delete();
+        }
+        evict();
+    }
+
+    private void remove(String name) {
+        Long length = files.remove(name);
+        if (length != null) {
+            totalSize -= length;
+        }
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, Long>> iterator = files.entrySet().iterator();
+        while (totalSize > maxSize && iterator.hasNext()) {
+            Map.Entry<String, Long> entry = iterator.next();
+            //noinspection ResultOfMethodCallIgnored
+            new File(dir, entry.getKey()).delete();
+            totalSize -= entry.getValue();
+            iterator.remove();
+        }
+    }
+
+    public synchronized long getTotalSize() {
+        return totalSize;
+    }
+
+    public synchronized int getHitCount() {
+        return hits;
+    }
+
+    public synchronized int getMissCount() {
+        return misses;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "DeflateCache{dir=" + dir + ", files=" + files.size() + ", size=" + totalSize
+                + ", hits=" + hits + ", misses=" + misses + "}";
+    }
+
+}
@@ -0,0 +1,209 @@
+package bin.zip;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * 压缩条目的随机访问索引
+ * <p>
+ * 每隔一定长度的解压数据，在deflate数据块的边界记录一个检查点，包括压缩数据的比特偏移、
+ * 解压数据的偏移以及此前32K的解压数据。从检查点开始解压只需要把32K数据设为字典，
+ * 无需解压前面的全部数据。
+ * <p>
+ * 建立索引需要完整解压一次条目，索引可以通过 {@link #writeTo(OutputStream)} 保存，
+ * 下次打开时通过 {@link #readFrom(InputStream)} 读取，读取后会校验条目是否发生变化。
+ *
+ * @author Bin
+ */
+public class DeflateIndex {
+    public static final long DEFAULT_SPAN = 1024 * 1024;
+    private static final int MAGIC = 0x58444944; // DIDX
+    private static final int VERSION = 1;
+
+    private final String name;
+    private final int crc;
+    private final long size;
+    private final long compressedSize;
+    private final long span;
+    private final List<Checkpoint> checkpoints;
+
+    private DeflateIndex(String name, int crc, long size, long compressedSize, long span, List<Checkpoint> checkpoints) {
+        this.name = name;
+        this.crc = crc;
+        this.size = size;
+        this.compressedSize = compressedSize;
+        this.span = span;
+        this.checkpoints = Collections.unmodifiableList(checkpoints);
+    }
+
+    /**
+     * 解压整个条目并建立索引
+     *
+     * @param raw  条目未解压的原始数据
+     * @param span 检查点之间的最小间隔
+     */
+    static DeflateIndex build(ZipEntry entry, InputStream raw, long span) throws IOException {
+        if (entry.getMethod() != ZipConstant.METHOD_DEFLATED) {
+            throw new IOException("Entry is not deflated: " + entry.getName());
+        }
+        if (span <= 0) {
+            throw new IllegalArgumentException("span=" + span);
+        }
+        List<Checkpoint> checkpoints = new ArrayList<>();
+        checkpoints.add(new Checkpoint(0, 0, new byte[0]));
+        DeflateBlockScanner scanner = new DeflateBlockScanner(raw);
+        scanner.scan(s -> {
+            long out = s.getOutputCount();
+            if (out - checkpoints.get(checkpoints.size() - 1).out >= span) {
+                checkpoints.add(new Checkpoint(out, s.getBitPosition(), s.getWindow()));
+            }
+        });
+        if (scanner.getOutputCount() != entry.getSize() || scanner.getCrc() != entry.getCrc()) {
+            throw new ZipException("Invalid entry data: " + entry.getName());
+        }
+        return new DeflateIndex(entry.getName(), entry.getCrc(), entry.getSize(), entry.getCompressedSize(), span, checkpoints);
+    }
+
+    /**
+     * @return 索引是否由该条目建立，且条目数据没有发生变化
+     */
+    public boolean isValidFor(ZipEntry entry) {
+        return entry.getMethod() == ZipConstant.METHOD_DEFLATED
+                && name.equals(entry.getName())
+                && crc == entry.getCrc()
+                && size == entry.getSize()
+                && compressedSize == entry.getCompressedSize();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getSpan() {
+        return span;
+    }
+
+    public List<Checkpoint> getCheckpoints() {
+        return checkpoints;
+    }
+
+    /**
+     * @return 解压偏移不超过position的最后一个检查点
+     */
+    Checkpoint findCheckpoint(long position) {
+        int low = 0;
+        int high = checkpoints.size() - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (checkpoints.get(mid).out <= position) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return checkpoints.get(low);
+    }
+
+    public void writeTo(OutputStream os) throws IOException {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            DeflaterOutputStream dos = new DeflaterOutputStream(os, deflater, 64 * 1024);
+            DataOutputStream out = new DataOutputStream(dos);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(name);
+            out.writeInt(crc);
+            out.writeLong(size);
+            out.writeLong(compressedSize);
+            out.writeLong(span);
+            out.writeInt(checkpoints.size());
+            for (Checkpoint checkpoint : checkpoints) {
+                out.writeLong(checkpoint.out);
+                out.writeLong(checkpoint.in);
+                out.writeInt(checkpoint.window.length);
+                out.write(checkpoint.window);
+            }
+            out.flush();
+            // 不关闭外部传入的流
+            dos.finish();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    public static DeflateIndex readFrom(InputStream is) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            return readFrom(new DataInputStream(new InflaterInputStream(is, inflater)));
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static DeflateIndex readFrom(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a deflate index");
+        }
+        int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported deflate index version " + version);
+        }
+        String name = in.readUTF();
+        int crc = in.readInt();
+        long size = in.readLong();
+        long compressedSize = in.readLong();
+        long span = in.readLong();
+        int count = in.readInt();
+        if (count <= 0) {
+            throw new IOException("Invalid checkpoint count " + count);
+        }
+        List<Checkpoint> checkpoints = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            long out = in.readLong();
+            long bitPosition = in.readLong();
+            int windowLength = in.readInt();
+            if (out < 0 || out > size || bitPosition < 0 || bitPosition > compressedSize * 8
+                    || windowLength < 0 || windowLength > DeflateBlockScanner.WINDOW_SIZE) {
+                throw new IOException("Invalid checkpoint " + i);
+            }
+            byte[] window = new byte[windowLength];
+            in.readFully(window);
+            checkpoints.add(new Checkpoint(out, bitPosition, window));
+        }
+        return new DeflateIndex(name, crc, size, compressedSize, span, checkpoints);
+    }
+
+    public static class Checkpoint {
+        final long out;
+        final long in;
+        final byte[] window;
+
+        Checkpoint(long out, long in, byte[] window) {
+            this.out = out;
+            this.in = in;
+            this.window = window;
+        }
+
+        /**
+         * @return 检查点在解压数据中的偏移
+         */
+        public long getOffset() {
+            return out;
+        }
+
+        /**
+         * @return 检查点在压缩数据中的偏移，单位为比特
+         */
+        public long getBitOffset() {
+            return in;
+        }
+    }
+
+}
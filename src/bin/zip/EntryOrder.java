@@ -0,0 +1,227 @@
+package bin.zip;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * 条目数据的写入顺序，安装与首次启动时先读取的条目排在前面，连续存放便于系统预读
+ * <p>
+ * 规则按访问顺序添加，条目排在第一个匹配的规则的位置，匹配同一条规则的条目按文件名中的数字从小到大排列，
+ * 如classes.dex、classes2.dex、classes10.dex；没有规则匹配的条目排在最后并保持原来的顺序。
+ * 规则为glob表达式，不含'/'的表达式匹配任意目录下的文件名，否则匹配完整路径，以'/'开头时表示从根目录开始；
+ * '*'不跨越目录，'**'可以跨越目录，'?'匹配单个字符。
+ *
+ * @author Bin
+ * @see DataMultiplexing#optimize(File, File, String, boolean, AlignmentPolicy, EntryOrder)
+ */
+public class EntryOrder {
+
+    /**
+     * 系统解析安装包时依次读取AndroidManifest.xml、resources.arsc与dex
+     */
+    public static final EntryOrder DEFAULT = new EntryOrder()
+            .add("/AndroidManifest.xml")
+            .add("/resources.arsc")
+            .add("/classes*.dex")
+            .seal();
+
+    private final List<GlobPattern> rules = new ArrayList<>();
+    /**
+     * 访问记录中的完整路径，条目数较多时不必逐条匹配
+     */
+    private final Map<String, Integer> names = new HashMap<>();
+    private boolean sealed;
+
+    public EntryOrder() {
+    }
+
+    /**
+     * 复制other的规则，用于在预置规则的基础上追加
+     */
+    public EntryOrder(EntryOrder other) {
+        rules.addAll(other.rules);
+        names.putAll(other.names);
+    }
+
+    /**
+     * 读取访问记录，每行一个条目的完整路径，按首次访问的顺序排列
+     * <p>
+     * 包含'*'或'?'的行按glob表达式处理，空行与'#'开头的行被忽略
+     */
+    public static EntryOrder fromProfile(File profile) throws IOException {
+        EntryOrder order = new EntryOrder();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(Files.newInputStream(profile.toPath()), ZipConstant.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    order.addProfileLine(line);
+                }
+            }
+        }
+        return order;
+    }
+
+    /**
+     * @param accessOrder 按首次访问的顺序排列的条目路径
+     */
+    public static EntryOrder fromProfile(List<String> accessOrder) {
+        EntryOrder order = new EntryOrder();
+        for (String name : accessOrder) {
+            order.addProfileLine(name);
+        }
+        return order;
+    }
+
+    private void addProfileLine(String line) {
+        if (line.indexOf('*') != -1 || line.indexOf('?') != -1) {
+            add(line);
+        } else {
+            checkSealed();
+            names.putIfAbsent(line, rules.size());
+            // 占位，保证完整路径与glob表达式的顺序一致
+            rules.add(null);
+        }
+    }
+
+    /**
+     * 添加一条排在已有规则之后的规则
+     */
+    public EntryOrder add(String glob) {
+        checkSealed();
+        rules.add(new GlobPattern(glob));
+        return this;
+    }
+
+    private void checkSealed() {
+        if (sealed) {
+            throw new UnsupportedOperationException("Predefined order cannot be modified");
+        }
+    }
+
+    private EntryOrder seal() {
+        sealed = true;
+        return this;
+    }
+
+    /**
+     * @return 第一个匹配的规则的序号，没有规则匹配时为-1
+     */
+    public int getRank(String name) {
+        Integer index = names.get(name);
+        int limit = index == null ? rules.size() : index;
+        for (int i = 0; i < limit; i++) {
+            GlobPattern rule = rules.get(i);
+            if (rule != null && rule.matches(name)) {
+                return i;
+            }
+        }
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * 稳定排序，见类的说明
+     */
+    public void sort(List<ZipEntry> entries) {
+        sort(entries, ZipEntry::getName);
+    }
+
+    public <T> void sort(List<T> list, Function<? super T, String> nameFunction) {
+        List<Item<T>> items = new ArrayList<>(list.size());
+        for (T element : list) {
+            String name = nameFunction.apply(element);
+            int rank = getRank(name);
+            items.add(new Item<>(element, name, rank == -1 ? Integer.MAX_VALUE : rank));
+        }
+        items.sort(Comparator.<Item<T>>comparingInt(item -> item.rank).thenComparing((a, b) ->
+                a.rank == Integer.MAX_VALUE ? 0 : compareNumeric(a.name, b.name)));
+        list.clear();
+        for (Item<T> item : items) {
+            list.add(item.element);
+        }
+    }
+
+    /**
+     * 按字符比较，连续的数字按数值比较，没有数字的一方排在前面
+     */
+    private static int compareNumeric(String a, String b) {
+        int i = 0;
+        int j = 0;
+        while (i < a.length() && j < b.length()) {
+            char ca = a.charAt(i);
+            char cb = b.charAt(j);
+            boolean da = isDigit(ca);
+            boolean db = isDigit(cb);
+            if (da && db) {
+                int endA = skipDigits(a, i);
+                int endB = skipDigits(b, j);
+                int result = Long.compare(parse(a, i, endA), parse(b, j, endB));
+                if (result != 0) {
+                    return result;
+                }
+                i = endA;
+                j = endB;
+                continue;
+            }
+            if (da != db) {
+                return da ? 1 : -1;
+            }
+            if (ca != cb) {
+                return Character.compare(ca, cb);
+            }
+            i++;
+            j++;
+        }
+        return Integer.compare(a.length() - i, b.length() - j);
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static int skipDigits(String s, int i) {
+        while (i < s.length() && isDigit(s.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static long parse(String s, int start, int end) {
+        // 位数过多时只比较前18位
+        return Long.parseLong(s.substring(start, Math.min(end, start + 18)));
+    }
+
+    @Override
+    public String toString() {
+        List<String> list = new ArrayList<>(rules.size());
+        for (GlobPattern rule : rules) {
+            list.add(rule == null ? null : rule.toString());
+        }
+        for (Map.Entry<String, Integer> entry : names.entrySet()) {
+            list.set(entry.getValue(), entry.getKey());
+        }
+        return "EntryOrder" + list;
+    }
+
+    private static class Item<T> {
+        final T element;
+        final String name;
+        final int rank;
+
+        Item(T element, String name, int rank) {
+            this.element = element;
+            this.name = name;
+            this.rank = rank;
+        }
+    }
+
+}
@@ -0,0 +1,30 @@
+package bin.zip;
+
+import java.io.*;
+
+/**
+ * 条目内容的来源，可能在工作线程中被打开
+ *
+ * @author Bin
+ */
+@FunctionalInterface
+public interface EntrySource {
+
+    InputStream open() throws IOException;
+
+    static EntrySource of(byte[] data) {
+        return () -> new ByteArrayInputStream(data);
+    }
+
+    static EntrySource of(File file) {
+        return () -> new FileInputStream(file);
+    }
+
+    /**
+     * 多个线程同时读取时建议使用并发模式打开的ZipFile
+     */
+    static EntrySource of(ZipFile zipFile, ZipEntry entry) {
+        return () -> zipFile.getInputStream(entry);
+    }
+
+}
@@ -68,17 +68,45 @@ class ExtraDataRecord {
     /**
      * 去除无效数据
      */
-    public static byte[] trim(byte[] extra) throws IOException {
+    public static byte[] trim(byte[] extra) {
+        return Arrays.copyOf(extra, trimmedLength(extra, 0, extra.length));
+    }
+
+    /**
+     * @return 去除无效数据后的长度
+     */
+    static int trimmedLength(byte[] buffer, int off, int len) {
         int offset = 0;
-        while (extra.length - offset >= 4) {
-            int header = ZipUtil.readUShort(extra, offset);
-            int size = ZipUtil.readUShort(extra, offset + 2);
-            if (!KNOWN_HEADER.contains(header) || offset + 4 + size > extra.length) {
+        while (len - offset >= 4) {
+            int header = readUShort(buffer, off + offset);
+            int size = readUShort(buffer, off + offset + 2);
+            if (!KNOWN_HEADER.contains(header) || offset + 4 + size > len) {
                 break;
             }
             offset += 4 + size;
         }
-        return Arrays.copyOf(extra, offset);
+        return offset;
+    }
+
+    /**
+     * @return 指定记录的起始位置，不存在或数据有误时返回-1
+     */
+    static int indexOf(byte[] extra, int header) {
+        int offset = 0;
+        while (extra.length - offset >= 4) {
+            int h = readUShort(extra, offset);
+            int size = readUShort(extra, offset + 2);
+            if (size > extra.length - offset - 4)
+                return -1;
+            if (h == header)
+                return offset;
+            offset += 4 + size;
+        }
+        return -1;
+    }
+
+    private static int readUShort(byte[] b, int off) {
+        return (b[off + 1] & 0xFF) << 8 | b[off] & 0xFF;
     }
 
     public static byte[] set(byte[] extra, int header, byte[] data) throws IOException {
@@ -91,26 +119,16 @@ class ExtraDataRecord {
         return newExtra;
     }
 
-    public static byte[] remove(byte[] extra, int header) throws IOException {
-        int offset = 0;
-        while (extra.length - offset >= 4) {
-            int h = ZipUtil.readUShort(extra, offset);
-            int size = ZipUtil.readUShort(extra, offset + 2);
-            offset += 4;
-            if (size > extra.length - offset)
-                return extra;
-            if (h != header) {
-                offset += size;
-            } else {
-                offset -= 4;
-                size += 4;
-                byte[] bytes = new byte[extra.length - size];
-                System.arraycopy(extra, 0, bytes, 0, offset);
-                System.arraycopy(extra, offset + size, bytes, offset, extra.length - size - offset);
-                return bytes;
-            }
+    public static byte[] remove(byte[] extra, int header) {
+        int offset = indexOf(extra, header);
+        if (offset < 0) {
+            return extra;
         }
-        return extra;
+        int size = 4 + readUShort(extra, offset + 2);
+        byte[] bytes = new byte[extra.length - size];
+        System.arraycopy(extra, 0, bytes, 0, offset);
+        System.arraycopy(extra, offset + size, bytes, offset, extra.length - size - offset);
+        return bytes;
     }
 
     public static ExtraDataRecord find(byte[] extra, int header) throws IOException {
@@ -0,0 +1,56 @@
+package bin.zip;
+
+import java.util.regex.Pattern;
+
+/**
+ * 条目路径的glob表达式
+ * <p>
+ * 不含'/'的表达式匹配任意目录下的文件名，否则匹配完整路径，以'/'开头时表示从根目录开始；
+ * '*'不跨越目录，'**'可以跨越目录，'?'匹配单个字符。
+ *
+ * @author Bin
+ */
+class GlobPattern {
+    private final String glob;
+    private final boolean matchName;
+    private final Pattern pattern;
+
+    GlobPattern(String glob) {
+        this.glob = glob;
+        this.matchName = glob.indexOf('/') == -1;
+        this.pattern = Pattern.compile(toRegex(glob.startsWith("/") ? glob.substring(1) : glob));
+    }
+
+    boolean matches(String name) {
+        if (matchName) {
+            name = name.substring(name.lastIndexOf('/') + 1);
+        }
+        return pattern.matcher(name).matches();
+    }
+
+    private static String toRegex(String glob) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == '*') {
+                if (i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                    sb.append(".*");
+                    i++;
+                } else {
+                    sb.append("[^/]*");
+                }
+            } else if (c == '?') {
+                sb.append("[^/]");
+            } else {
+                sb.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return glob;
+    }
+
+}
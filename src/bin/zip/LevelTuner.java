@@ -0,0 +1,176 @@
+package bin.zip;
+
+import java.util.Locale;
+import java.util.zip.Deflater;
+
+/**
+ * 根据实测的压缩速度调整每个条目的压缩等级，在满足吞吐量要求的前提下尽量使用更高的压缩等级
+ * <p>
+ * 吞吐量按未压缩的数据量计算。每个条目压缩完成后更新对应等级的速度估计，
+ * 当前等级达不到要求时降低等级；超出要求较多且更高等级的速度未知或满足要求时提高等级。
+ *
+ * @author Bin
+ * @see ZipMaker#setLevelTuner(LevelTuner)
+ */
+public class LevelTuner {
+    private static final int MIN_LEVEL = Deflater.BEST_SPEED;
+    private static final int MAX_LEVEL = Deflater.BEST_COMPRESSION;
+    private static final int INITIAL_LEVEL = 6;
+
+    /**
+     * 太小的条目耗时主要在初始化上，不用于估计速度
+     */
+    private static final long MIN_MEASURE_SIZE = 16 * 1024;
+
+    /**
+     * 速度估计的平滑系数
+     */
+    private static final double SMOOTHING = 0.3;
+
+    /**
+     * 当前等级的速度超过要求的倍数时，才尝试速度未知的更高等级
+     */
+    private static final double PROBE_MARGIN = 1.5;
+
+    private final double targetSpeed;
+    private final long budgetNanos;
+    private final long totalBytes;
+
+    private long startTime = -1;
+    private long processedBytes;
+    private int level = INITIAL_LEVEL;
+
+    private final double[] speeds = new double[MAX_LEVEL + 1];
+    private final int[] entries = new int[MAX_LEVEL + 1];
+    private final long[] sizes = new long[MAX_LEVEL + 1];
+    private final long[] compressedSizes = new long[MAX_LEVEL + 1];
+    private final long[] times = new long[MAX_LEVEL + 1];
+
+    private LevelTuner(double targetSpeed, long budgetNanos, long totalBytes) {
+        this.targetSpeed = targetSpeed;
+        this.budgetNanos = budgetNanos;
+        this.totalBytes = totalBytes;
+    }
+
+    /**
+     * @param megabytesPerSecond 每秒压缩的未压缩数据量，单位为MB
+     */
+    public static LevelTuner forThroughput(double megabytesPerSecond) {
+        if (megabytesPerSecond <= 0) {
+            throw new IllegalArgumentException("megabytesPerSecond=" + megabytesPerSecond);
+        }
+        return new LevelTuner(megabytesPerSecond * 1024 * 1024, 0, 0);
+    }
+
+    /**
+     * 在限定时间内压缩完所有条目，所需的吞吐量随剩余时间与剩余数据量变化
+     *
+     * @param millis     从第一个条目开始计算的时间
+     * @param totalBytes 预计的未压缩数据总量
+     */
+    public static LevelTuner forTimeBudget(long millis, long totalBytes) {
+        if (millis <= 0 || totalBytes <= 0) {
+            throw new IllegalArgumentException("millis=" + millis + ", totalBytes=" + totalBytes);
+        }
+        return new LevelTuner(0, millis * 1000000L, totalBytes);
+    }
+
+    /**
+     * @return 下一个条目使用的压缩等级
+     */
+    synchronized int nextLevel() {
+        if (startTime == -1) {
+            startTime = System.nanoTime();
+        }
+        return level;
+    }
+
+    /**
+     * 记录一个条目的压缩结果
+     *
+     * @param nanos 压缩耗时，多个条目同时压缩时应除以线程数
+     */
+    synchronized void record(int level, long size, long compressedSize, long nanos) {
+        if (level < MIN_LEVEL || level > MAX_LEVEL) {
+            return;
+        }
+        processedBytes += size;
+        entries[level]++;
+        sizes[level] += size;
+        compressedSizes[level] += compressedSize;
+        times[level] += nanos;
+        if (size < MIN_MEASURE_SIZE || nanos <= 0) {
+            return;
+        }
+        double speed = size * 1e9 / nanos;
+        speeds[level] = speeds[level] == 0 ? speed : speeds[level] * (1 - SMOOTHING) + speed * SMOOTHING;
+        if (level == this.level) {
+            adjust();
+        }
+    }
+
+    private void adjust() {
+        double required = requiredSpeed();
+        if (speeds[level] < required) {
+            while (level > MIN_LEVEL) {
+                level--;
+                if (speeds[level] == 0 || speeds[level] >= required) {
+                    break;
+                }
+            }
+        } else if (level < MAX_LEVEL) {
+            double higher = speeds[level + 1];
+            if (higher == 0 ? speeds[level] >= required * PROBE_MARGIN : higher >= required) {
+                level++;
+            }
+        }
+    }
+
+    private double requiredSpeed() {
+        if (budgetNanos == 0) {
+            return targetSpeed;
+        }
+        long remainingBytes = totalBytes - processedBytes;
+        if (remainingBytes <= 0) {
+            return 0;
+        }
+        long remainingNanos = budgetNanos - (System.nanoTime() - startTime);
+        if (remainingNanos <= 0) {
+            return Double.MAX_VALUE;
+        }
+        return remainingBytes * 1e9 / remainingNanos;
+    }
+
+    public synchronized int getCurrentLevel() {
+        return level;
+    }
+
+    /**
+     * @return 使用该等级压缩的条目数
+     */
+    public synchronized int getEntryCount(int level) {
+        return level < MIN_LEVEL || level > MAX_LEVEL ? 0 : entries[level];
+    }
+
+    /**
+     * 各压缩等级的条目数、压缩率与实测速度
+     */
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = MIN_LEVEL; i <= MAX_LEVEL; i++) {
+            if (entries[i] == 0) {
+                continue;
+            }
+            if (sb.length() > 0) {
+                sb.append('\n');
+            }
+            sb.append(String.format(Locale.ROOT, "level %d: entries=%d, size=%d, compressed=%d [%.2f%%], %.2fMB/s",
+                    i, entries[i], sizes[i], compressedSizes[i],
+                    sizes[i] == 0 ? 0 : compressedSizes[i] * 100.0 / sizes[i],
+                    times[i] == 0 ? 0 : sizes[i] * 1e9 / times[i] / 1024 / 1024));
+        }
+        return sb.toString();
+    }
+
+}
@@ -1,22 +1,41 @@
 package bin.zip;
 
+import bin.io.BufferPool;
+
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.zip.Deflater;
 import java.util.zip.DeflaterOutputStream;
 
 /**
+ * Deflater与输出缓冲区均取自池中，关闭后归还
+ *
  * @author Bin
  */
 public class NoWrapDeflaterOutputStream extends DeflaterOutputStream {
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private boolean released;
 
     public NoWrapDeflaterOutputStream(OutputStream os, int level) {
-        super(os, new Deflater(level, true));
+        this(os, level, Deflater.DEFAULT_STRATEGY);
+    }
+
+    public NoWrapDeflaterOutputStream(OutputStream os, int level, int strategy) {
+        super(os, CodecPool.acquireDeflater(level, strategy), 1);
+        this.buf = BufferPool.acquire(BUFFER_SIZE);
     }
 
     @Override
     public void close() throws IOException {
-        super.close();
-        def.end();
+        try {
+            super.close();
+        } finally {
+            if (!released) {
+                released = true;
+                CodecPool.releaseDeflater(def);
+                BufferPool.release(buf);
+            }
+        }
     }
 }
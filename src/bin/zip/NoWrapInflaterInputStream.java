@@ -1,20 +1,31 @@
 package bin.zip;
 
+import bin.io.BufferPool;
+
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.zip.Inflater;
 import java.util.zip.InflaterInputStream;
 import java.util.zip.ZipException;
 
 /**
+ * Inflater与输入缓冲区均取自池中，关闭后归还
+ *
  * @author Bin
  */
 public class NoWrapInflaterInputStream extends InflaterInputStream {
+    private static final int DEFAULT_BUFFER_SIZE = 8 * 1024;
+
     private final ZipEntry entry;
+    private boolean released;
 
     public NoWrapInflaterInputStream(ZipEntry entry, InputStream in) {
-        super(in, new Inflater(true));
+        this(entry, in, DEFAULT_BUFFER_SIZE);
+    }
+
+    public NoWrapInflaterInputStream(ZipEntry entry, InputStream in, int size) {
+        super(in, CodecPool.acquireInflater(), 1);
+        this.buf = BufferPool.acquire(size);
         this.entry = entry;
     }
 
@@ -30,4 +41,17 @@ public class NoWrapInflaterInputStream extends InflaterInputStream {
         }
     }
 
+    @Override
+    public void close() throws IOException {
+        try {
+            super.close();
+        } finally {
+            if (!released) {
+                released = true;
+                CodecPool.releaseInflater(inf);
+                BufferPool.release(buf);
+            }
+        }
+    }
+
 }
@@ -0,0 +1,291 @@
+package bin.zip;
+
+import bin.io.BufferPool;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterOutputStream;
+import java.util.zip.ZipException;
+
+import static bin.zip.ZipConstant.METHOD_DEFLATED;
+
+/**
+ * 在工作线程中压缩条目内容，结果暂存在内存或临时文件中
+ *
+ * @author Bin
+ */
+class ParallelCompressor implements Closeable {
+    private final ExecutorService executor;
+    private final int threads;
+    private final long memoryLimit;
+
+    ParallelCompressor(int threads, long memoryLimit) {
+        this.executor = newExecutor(threads);
+        this.threads = threads;
+        this.memoryLimit = memoryLimit;
+    }
+
+    int getThreads() {
+        return threads;
+    }
+
+    static ExecutorService newExecutor(int threads) {
+        return Executors.newFixedThreadPool(threads, new CompressorThreadFactory());
+    }
+
+    Future<Result> submit(EntrySource source, int method, int level) {
+        Compression compression = method == METHOD_DEFLATED ? Compression.deflated(level) : Compression.STORED;
+        return executor.submit(() -> compress(source, compression, memoryLimit));
+    }
+
+    Future<Result> submit(EntrySource source, String name, int level, CompressionPolicy policy) {
+        return executor.submit(() -> compress(source, name, level, policy, memoryLimit));
+    }
+
+    /**
+     * 每种压缩方式各自在工作线程中压缩，全部完成后保留最小的结果
+     *
+     * @param baseline 用于统计节省体积的压缩方式，必须包含在candidates中
+     */
+    Future<Result> submit(EntrySource source, List<Compression> candidates, Compression baseline) {
+        List<CompletableFuture<Result>> futures = new ArrayList<>(candidates.size());
+        for (Compression compression : candidates) {
+            futures.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    return compress(source, compression, memoryLimit);
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            }, executor));
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).handle((v, e) -> {
+            List<Result> results = new ArrayList<>(futures.size());
+            for (CompletableFuture<Result> future : futures) {
+                if (!future.isCompletedExceptionally()) {
+                    results.add(future.join());
+                }
+            }
+            if (e != null) {
+                for (Result result : results) {
+                    result.data.release();
+                }
+                throw e instanceof CompletionException ? (CompletionException) e : new CompletionException(e);
+            }
+            try {
+                return selectSmallest(results, baseline);
+            } catch (IOException ex) {
+                throw new CompletionException(ex);
+            }
+        });
+    }
+
+    static Result compress(EntrySource source, List<Compression> candidates, Compression baseline, long memoryLimit) throws IOException {
+        List<Result> results = new ArrayList<>(candidates.size());
+        try {
+            for (Compression compression : candidates) {
+                results.add(compress(source, compression, memoryLimit));
+            }
+        } catch (IOException | RuntimeException | Error e) {
+            for (Result result : results) {
+                result.data.release();
+            }
+            throw e;
+        }
+        return selectSmallest(results, baseline);
+    }
+
+    /**
+     * 选出体积最小且能正确解压的结果，释放其余结果
+     */
+    private static Result selectSmallest(List<Result> results, Compression baseline) throws IOException {
+        results.sort(Comparator.comparingLong(r -> r.data.getCount()));
+        long baselineSize = -1;
+        long nanos = 0;
+        for (Result result : results) {
+            if (result.compression.equals(baseline)) {
+                baselineSize = result.data.getCount();
+            }
+            nanos += result.nanos;
+        }
+        Result best = null;
+        for (Result result : results) {
+            if (best == null && verify(result)) {
+                best = result;
+            } else {
+                result.data.release();
+            }
+        }
+        if (best == null) {
+            throw new ZipException("No valid compression result");
+        }
+        if (baselineSize == -1) {
+            // 没有尝试基准压缩方式，如压缩策略要求存储的条目
+            baselineSize = best.data.getCount();
+        }
+        return new Result(best.compression, best.crc, best.size, best.data, nanos, baselineSize);
+    }
+
+    /**
+     * 解压结果并校验CRC与体积
+     */
+    private static boolean verify(Result result) throws IOException {
+        if (result.compression.isStored()) {
+            return true;
+        }
+        Inflater inflater = CodecPool.acquireInflater();
+        try {
+            CrcOutputStream crcOutput = new CrcOutputStream(new OutputStream() {
+                @Override
+                public void write(int b) {
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                }
+            });
+            InflaterOutputStream os = new InflaterOutputStream(crcOutput, inflater, 8 * 1024);
+            try {
+                result.data.writeTo(os);
+                os.finish();
+            } catch (ZipException e) {
+                return false;
+            } finally {
+                crcOutput.close();
+            }
+            return inflater.finished() && crcOutput.getCrc() == result.crc && crcOutput.getCount() == result.size;
+        } finally {
+            CodecPool.releaseInflater(inflater);
+        }
+    }
+
+    static Result compress(EntrySource source, Compression compression, long memoryLimit) throws IOException {
+        try (InputStream is = source.open()) {
+            return compress(is, null, 0, compression, memoryLimit);
+        }
+    }
+
+    /**
+     * 先读取条目开头的数据交给压缩策略选择压缩方式，压缩后不被接受时重新读取并存储
+     */
+    static Result compress(EntrySource source, String name, int level, CompressionPolicy policy, long memoryLimit) throws IOException {
+        byte[] sample = BufferPool.acquire(CompressionPolicy.SAMPLE_SIZE);
+        try {
+            Result result;
+            int sampleLength;
+            try (InputStream is = source.open()) {
+                sampleLength = readFully(is, sample, CompressionPolicy.SAMPLE_SIZE);
+                Compression compression = policy.choose(name, sample, sampleLength, level);
+                result = compress(is, sample, sampleLength, compression, memoryLimit);
+            }
+            if (!result.compression.isStored() && !policy.accept(name, result.size, result.data.getCount())) {
+                result.data.release();
+                if (result.size == sampleLength) {
+                    result = compress(null, sample, sampleLength, Compression.STORED, memoryLimit);
+                } else {
+                    result = compress(source, Compression.STORED, memoryLimit);
+                }
+            }
+            return result;
+        } finally {
+            BufferPool.release(sample);
+        }
+    }
+
+    private static int readFully(InputStream is, byte[] b, int len) throws IOException {
+        int n = 0;
+        while (n < len) {
+            int count = is.read(b, n, len - n);
+            if (count == -1) {
+                break;
+            }
+            n += count;
+        }
+        return n;
+    }
+
+    /**
+     * @param is   head之后的数据，为null时head即为全部数据
+     * @param head 已经读取的开头数据
+     */
+    private static Result compress(InputStream is, byte[] head, int headLength, Compression compression, long memoryLimit) throws IOException {
+        long start = System.nanoTime();
+        SpillOutputStream spill = new SpillOutputStream(memoryLimit);
+        byte[] buffer = BufferPool.acquire(64 * 1024);
+        try {
+            OutputStream os = compression.isStored() ? spill
+                    : new NoWrapDeflaterOutputStream(spill, compression.getLevel(), compression.getStrategy());
+            CrcOutputStream crcOutput = new CrcOutputStream(os);
+            try {
+                if (headLength > 0) {
+                    crcOutput.write(head, 0, headLength);
+                }
+                int len;
+                while (is != null && (len = is.read(buffer)) != -1) {
+                    crcOutput.write(buffer, 0, len);
+                }
+            } finally {
+                crcOutput.close();
+            }
+            return new Result(compression, crcOutput.getCrc(), crcOutput.getCount(), spill, System.nanoTime() - start, -1);
+        } catch (IOException | RuntimeException | Error e) {
+            spill.release();
+            throw e;
+        } finally {
+            BufferPool.release(buffer);
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    static class Result {
+        final Compression compression;
+        final int crc;
+        final long size;
+        final SpillOutputStream data;
+        /**
+         * 读取与压缩的耗时
+         */
+        final long nanos;
+        /**
+         * 穷举压缩时基准压缩方式的压缩后体积，其它情况为-1
+         */
+        final long baselineSize;
+
+        Result(Compression compression, int crc, long size, SpillOutputStream data, long nanos, long baselineSize) {
+            this.compression = compression;
+            this.crc = crc;
+            this.size = size;
+            this.data = data;
+            this.nanos = nanos;
+            this.baselineSize = baselineSize;
+        }
+    }
+
+    private static class CompressorThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "ZipMaker-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+}
@@ -0,0 +1,115 @@
+package bin.zip;
+
+import bin.io.BufferPool;
+import bin.io.RandomAccessFile;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.zip.CRC32;
+
+/**
+ * 把文件的指定区域分块，各块通过定位读取在工作线程中计算CRC，再通过 {@link ZipUtil#crc32Combine(int, int, long)} 合并；
+ * 复制数据时各块同时通过定位写入输出，数据只读取一次
+ *
+ * @author Bin
+ */
+class ParallelCrc32 {
+    static final int BLOCK_SIZE = 4 * 1024 * 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private ParallelCrc32() {
+    }
+
+    /**
+     * 区域不足两块或threads不大于1时在当前线程计算
+     */
+    static int compute(RandomAccessFile file, long offset, long length, int threads) throws IOException {
+        return copy(file, offset, length, null, 0, threads);
+    }
+
+    /**
+     * 把文件的指定区域通过定位写入复制到target的position处，同时计算CRC，每块只读取一次
+     * <p>
+     * target为null时只计算CRC；不为null时调用前需要先flush，之后需要先seek再通过缓冲区读写
+     */
+    static int copy(RandomAccessFile file, long offset, long length, RandomAccessFile target, long position, int threads) throws IOException {
+        long blocks = (length + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        if (threads <= 1 || blocks < 2) {
+            return blockCrc(file, offset, length, target, position);
+        }
+        ExecutorService executor = ParallelCompressor.newExecutor((int) Math.min(threads, blocks));
+        try {
+            return submit(file, offset, length, target, position, executor).get();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("CRC computation interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * 每块作为一个任务提交到executor，不会在工作线程中等待其它任务，可以与其它任务共用线程池
+     */
+    static CompletableFuture<Integer> submit(RandomAccessFile file, long offset, long length, Executor executor) {
+        return submit(file, offset, length, null, 0, executor);
+    }
+
+    private static CompletableFuture<Integer> submit(RandomAccessFile file, long offset, long length,
+                                                     RandomAccessFile target, long position, Executor executor) {
+        CompletableFuture<Integer> result = null;
+        long pos = 0;
+        do {
+            long blockOffset = offset + pos;
+            long blockPosition = position + pos;
+            long blockLength = Math.min(BLOCK_SIZE, length - pos);
+            CompletableFuture<Integer> block = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return blockCrc(file, blockOffset, blockLength, target, blockPosition);
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            }, executor);
+            result = result == null ? block : result.thenCombine(block, (crc1, crc2) -> ZipUtil.crc32Combine(crc1, crc2, blockLength));
+            pos += blockLength;
+        } while (pos < length);
+        return result;
+    }
+
+    private static int blockCrc(RandomAccessFile file, long offset, long length,
+                                RandomAccessFile target, long position) throws IOException {
+        CRC32 crc32 = CodecPool.acquireCrc32();
+        byte[] buffer = BufferPool.acquire(BUFFER_SIZE);
+        try {
+            while (length > 0) {
+                int len = file.read(offset, buffer, 0, (int) Math.min(buffer.length, length));
+                if (len == -1) {
+                    throw new EOFException();
+                }
+                crc32.update(buffer, 0, len);
+                if (target != null) {
+                    target.write(position, buffer, 0, len);
+                    position += len;
+                }
+                offset += len;
+                length -= len;
+            }
+            return (int) crc32.getValue();
+        } finally {
+            BufferPool.release(buffer);
+            CodecPool.releaseCrc32(crc32);
+        }
+    }
+
+}
@@ -0,0 +1,175 @@
+package bin.zip;
+
+import bin.io.BufferPool;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+
+/**
+ * 数据原样写入out，同时计算CRC，用于较大的存储条目
+ * <p>
+ * 前 {@link #BLOCK_SIZE} 字节在当前线程计算，较小的条目与 {@link CrcOutputStream} 相同；之后的数据复制到分块中，
+ * 写满的块提交到工作线程计算，最后按顺序通过 {@link ZipUtil#crc32Combine(int, int, long)} 合并。
+ *
+ * @author Bin
+ */
+class ParallelCrcOutputStream extends OutputStream {
+    static final int BLOCK_SIZE = 1024 * 1024;
+
+    private final OutputStream out;
+    private final ExecutorService executor;
+    private final int maxPendingBlocks;
+    private final ArrayDeque<Future<Block>> pendingBlocks = new ArrayDeque<>();
+    // 在当前线程计算的前BLOCK_SIZE字节
+    private CRC32 crc32 = CodecPool.acquireCrc32();
+    private int inlineLength;
+    private byte[] block;
+    private int blockLength;
+    private int crc;
+    private long count;
+    private boolean closed;
+
+    ParallelCrcOutputStream(OutputStream out, ExecutorService executor, int maxPendingBlocks) {
+        this.out = out;
+        this.executor = executor;
+        this.maxPendingBlocks = maxPendingBlocks;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        out.write(b, off, len);
+        count += len;
+        if (crc32 != null) {
+            int n = Math.min(len, BLOCK_SIZE - inlineLength);
+            crc32.update(b, off, n);
+            inlineLength += n;
+            off += n;
+            len -= n;
+            if (inlineLength == BLOCK_SIZE) {
+                crc = (int) crc32.getValue();
+                CodecPool.releaseCrc32(crc32);
+                crc32 = null;
+            }
+        }
+        while (len > 0) {
+            if (block == null) {
+                block = BufferPool.acquire(BLOCK_SIZE);
+                blockLength = 0;
+            }
+            int n = Math.min(len, BLOCK_SIZE - blockLength);
+            System.arraycopy(b, off, block, blockLength, n);
+            blockLength += n;
+            off += n;
+            len -= n;
+            if (blockLength == BLOCK_SIZE) {
+                submitBlock();
+                collectBlocks(false);
+            }
+        }
+    }
+
+    private void submitBlock() {
+        byte[] input = block;
+        int length = blockLength;
+        block = null;
+        blockLength = 0;
+        pendingBlocks.add(executor.submit(() -> {
+            CRC32 crc32 = CodecPool.acquireCrc32();
+            try {
+                crc32.update(input, 0, length);
+                return new Block((int) crc32.getValue(), length);
+            } finally {
+                CodecPool.releaseCrc32(crc32);
+                BufferPool.release(input);
+            }
+        }));
+    }
+
+    /**
+     * 按顺序合并已完成的数据块的CRC
+     *
+     * @param all 为true时等待所有数据块完成，否则只在积压过多时等待
+     */
+    private void collectBlocks(boolean all) throws IOException {
+        Future<Block> future;
+        while ((future = pendingBlocks.peek()) != null) {
+            if (!all && !future.isDone() && pendingBlocks.size() < maxPendingBlocks) {
+                return;
+            }
+            pendingBlocks.poll();
+            Block result;
+            try {
+                result = future.get();
+            } catch (InterruptedException e) {
+                cancelBlocks();
+                throw new InterruptedIOException("CRC computation interrupted");
+            } catch (ExecutionException e) {
+                cancelBlocks();
+                Throwable cause = e.getCause();
+                throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+            }
+            crc = ZipUtil.crc32Combine(crc, result.crc, result.length);
+        }
+    }
+
+    private void cancelBlocks() {
+        Future<Block> future;
+        while ((future = pendingBlocks.poll()) != null) {
+            future.cancel(false);
+        }
+    }
+
+    int getCrc() {
+        return crc;
+    }
+
+    long getCount() {
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (crc32 != null) {
+                crc = (int) crc32.getValue();
+                CodecPool.releaseCrc32(crc32);
+                crc32 = null;
+            }
+            if (block != null) {
+                submitBlock();
+            }
+            collectBlocks(true);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static class Block {
+        final int crc;
+        final int length;
+
+        Block(int crc, int length) {
+            this.crc = crc;
+            this.length = length;
+        }
+    }
+
+}
@@ -0,0 +1,201 @@
+package bin.zip;
+
+import bin.io.BufferPool;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * 分块并行压缩单个条目
+ * <p>
+ * 与pigz相同，数据按固定大小分块，每块以前一块的最后32K作为预设字典独立压缩，除最后一块外均以
+ * SYNC_FLUSH结束，使压缩结果停在字节边界上，直接拼接即为完整的raw deflate数据。
+ * 每块的CRC同时计算，最后通过 {@link ZipUtil#crc32Combine(int, int, long)} 合并。
+ *
+ * @author Bin
+ */
+class ParallelDeflaterOutputStream extends OutputStream {
+    static final int MIN_BLOCK_SIZE = 64 * 1024;
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+
+    private final OutputStream out;
+    private final int level;
+    private final ExecutorService executor;
+    private final int blockSize;
+    private final int maxPendingBlocks;
+    private final ArrayDeque<Future<Block>> pendingBlocks = new ArrayDeque<>();
+    private byte[] block;
+    private int blockLength;
+    private byte[] dictionary;
+    private int crc;
+    private long count;
+    private boolean closed;
+
+    ParallelDeflaterOutputStream(OutputStream out, int level, ExecutorService executor, int blockSize, int maxPendingBlocks) {
+        if (blockSize < MIN_BLOCK_SIZE) {
+            throw new IllegalArgumentException("blockSize=" + blockSize);
+        }
+        this.out = out;
+        this.level = level;
+        this.executor = executor;
+        this.blockSize = blockSize;
+        this.maxPendingBlocks = maxPendingBlocks;
+        this.block = BufferPool.acquire(blockSize);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        while (len > 0) {
+            int n = Math.min(len, blockSize - blockLength);
+            System.arraycopy(b, off, block, blockLength, n);
+            blockLength += n;
+            off += n;
+            len -= n;
+            if (blockLength == blockSize) {
+                submitBlock(false);
+                writeBlocks(false);
+            }
+        }
+    }
+
+    private void submitBlock(boolean last) {
+        byte[] input = block;
+        int length = blockLength;
+        byte[] dict = dictionary;
+        if (!last) {
+            dictionary = Arrays.copyOfRange(input, length - DICTIONARY_SIZE, length);
+            block = BufferPool.acquire(blockSize);
+            blockLength = 0;
+        } else {
+            block = null;
+        }
+        pendingBlocks.add(executor.submit(() -> deflateBlock(input, length, dict, last)));
+    }
+
+    private Block deflateBlock(byte[] input, int length, byte[] dict, boolean last) {
+        Deflater deflater = CodecPool.acquireDeflater(level);
+        CRC32 crc32 = CodecPool.acquireCrc32();
+        byte[] buffer = BufferPool.acquire(64 * 1024);
+        try {
+            crc32.update(input, 0, length);
+            if (dict != null) {
+                deflater.setDictionary(dict);
+            }
+            deflater.setInput(input, 0, length);
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(length / 2 + 64);
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    int n = deflater.deflate(buffer, 0, buffer.length);
+                    baos.write(buffer, 0, n);
+                }
+            } else {
+                int n;
+                do {
+                    n = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    baos.write(buffer, 0, n);
+                } while (n == buffer.length || !deflater.needsInput());
+            }
+            return new Block(baos.toByteArray(), (int) crc32.getValue(), length);
+        } finally {
+            CodecPool.releaseDeflater(deflater);
+            CodecPool.releaseCrc32(crc32);
+            BufferPool.release(buffer);
+            BufferPool.release(input);
+        }
+    }
+
+    /**
+     * 按顺序写出已完成的数据块
+     *
+     * @param all 为true时等待所有数据块完成，否则只在积压过多时等待
+     */
+    private void writeBlocks(boolean all) throws IOException {
+        Future<Block> future;
+        while ((future = pendingBlocks.peek()) != null) {
+            if (!all && !future.isDone() && pendingBlocks.size() < maxPendingBlocks) {
+                return;
+            }
+            pendingBlocks.poll();
+            Block result;
+            try {
+                result = future.get();
+            } catch (InterruptedException e) {
+                cancelBlocks();
+                throw new InterruptedIOException("Compression interrupted");
+            } catch (ExecutionException e) {
+                cancelBlocks();
+                Throwable cause = e.getCause();
+                throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+            }
+            out.write(result.data);
+            crc = ZipUtil.crc32Combine(crc, result.crc, result.length);
+            count += result.length;
+        }
+    }
+
+    private void cancelBlocks() {
+        Future<Block> future;
+        while ((future = pendingBlocks.poll()) != null) {
+            future.cancel(false);
+        }
+    }
+
+    /**
+     * @return 未压缩数据的CRC
+     */
+    int getCrc() {
+        return crc;
+    }
+
+    /**
+     * @return 未压缩数据的长度
+     */
+    long getCount() {
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            submitBlock(true);
+            writeBlocks(true);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static class Block {
+        final byte[] data;
+        final int crc;
+        final int length;
+
+        Block(byte[] data, int crc, int length) {
+            this.data = data;
+            this.crc = crc;
+            this.length = length;
+        }
+    }
+
+}
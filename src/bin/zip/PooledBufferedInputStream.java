@@ -0,0 +1,28 @@
+package bin.zip;
+
+import bin.io.BufferPool;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 缓冲区取自池中，关闭后归还
+ *
+ * @author Bin
+ */
+class PooledBufferedInputStream extends BufferedInputStream {
+
+    PooledBufferedInputStream(InputStream in, int size) {
+        super(in, 1);
+        this.buf = BufferPool.acquire(size);
+    }
+
+    @Override
+    public void close() throws IOException {
+        byte[] buffer = buf;
+        super.close();
+        BufferPool.release(buffer);
+    }
+
+}
@@ -0,0 +1,106 @@
+package bin.zip;
+
+import bin.io.RandomAccessFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 通过定位读取访问文件的指定区域，不共享文件的读写位置，多个实例可以在不同线程中同时读取
+ *
+ * @author Bin
+ */
+public class PositionalInputStream extends InputStream {
+    private final RandomAccessFile archive;
+    private final byte[] buffer;
+    private int bufferPos;
+    private int bufferLen;
+    private long remaining;
+    private long loc;
+
+    public PositionalInputStream(RandomAccessFile archive, long start, long remaining) {
+        this(archive, start, remaining, 8 * 1024);
+    }
+
+    public PositionalInputStream(RandomAccessFile archive, long start, long remaining, int bufferSize) {
+        this.archive = archive;
+        this.remaining = remaining;
+        this.buffer = new byte[(int) Math.max(1, Math.min(bufferSize, remaining))];
+        loc = start;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (bufferPos >= bufferLen && fill() <= 0) {
+            return -1;
+        }
+        return buffer[bufferPos++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len <= 0) {
+            return 0;
+        }
+        int available = bufferLen - bufferPos;
+        if (available > 0) {
+            len = Math.min(len, available);
+            System.arraycopy(buffer, bufferPos, b, off, len);
+            bufferPos += len;
+            return len;
+        }
+        if (remaining <= 0) {
+            return -1;
+        }
+        if (len >= buffer.length) {
+            // 大块读取直接读到目标数组
+            int ret = archive.read(loc, b, off, (int) Math.min(len, remaining));
+            if (ret > 0) {
+                loc += ret;
+                remaining -= ret;
+            }
+            return ret;
+        }
+        if (fill() <= 0) {
+            return -1;
+        }
+        len = Math.min(len, bufferLen);
+        System.arraycopy(buffer, 0, b, off, len);
+        bufferPos = len;
+        return len;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if (n <= 0) {
+            return 0;
+        }
+        long skipped = Math.min(n, bufferLen - bufferPos);
+        bufferPos += (int) skipped;
+        long more = Math.min(n - skipped, remaining);
+        loc += more;
+        remaining -= more;
+        return skipped + more;
+    }
+
+    @Override
+    public int available() {
+        return (int) Math.min(bufferLen - bufferPos + remaining, Integer.MAX_VALUE);
+    }
+
+    private int fill() throws IOException {
+        bufferPos = 0;
+        bufferLen = 0;
+        if (remaining <= 0) {
+            return -1;
+        }
+        int ret = archive.read(loc, buffer, 0, (int) Math.min(buffer.length, remaining));
+        if (ret > 0) {
+            loc += ret;
+            remaining -= ret;
+            bufferLen = ret;
+        }
+        return ret;
+    }
+
+}
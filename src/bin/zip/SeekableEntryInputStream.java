@@ -0,0 +1,260 @@
+package bin.zip;
+
+import bin.io.BufferPool;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+import static bin.zip.ZipConstant.METHOD_STORED;
+
+/**
+ * 可以定位到任意解压偏移的条目输入流
+ * <p>
+ * 存储方式的条目直接定位原始数据；压缩方式的条目借助 {@link DeflateIndex} 从最近的检查点开始解压，
+ * 向后定位且没有越过下一个检查点时直接跳过中间的数据。
+ *
+ * @author Bin
+ */
+public class SeekableEntryInputStream extends InputStream {
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private final ZipFile zipFile;
+    private final ZipEntry entry;
+    private final DeflateIndex index;
+    private final byte[] input;
+    private InputStream raw;
+    private Inflater inflater;
+    private long position;
+    private boolean closed;
+
+    SeekableEntryInputStream(ZipFile zipFile, ZipEntry entry, DeflateIndex index) throws IOException {
+        this.zipFile = zipFile;
+        this.entry = entry;
+        this.index = index;
+        this.input = entry.getMethod() == METHOD_STORED ? null : BufferPool.acquire(BUFFER_SIZE);
+        seek(0);
+    }
+
+    public long length() {
+        return entry.getSize();
+    }
+
+    public long position() {
+        return position;
+    }
+
+    public void seek(long pos) throws IOException {
+        ensureOpen();
+        if (pos < 0 || pos > entry.getSize()) {
+            throw new EOFException("Seek out of range: " + pos + " (" + entry.getName() + ")");
+        }
+        if (input == null) {
+            raw = zipFile.getRawInputStream(entry, pos);
+            position = pos;
+            return;
+        }
+        DeflateIndex.Checkpoint target = index.findCheckpoint(pos);
+        if (raw == null || pos < position || target.out > position) {
+            resetTo(target);
+        }
+        skipFully(pos - position);
+    }
+
+    private void resetTo(DeflateIndex.Checkpoint target) throws IOException {
+        InputStream is = zipFile.getRawInputStream(entry, target.in >>> 3);
+        int bits = (int) (target.in & 7);
+        if (bits != 0) {
+            // 检查点所在字节的低位属于前一个数据块，替换为等长的空数据块，之后的数据保持原来的字节边界
+            int first = is.read();
+            if (first == -1) {
+                throw new EOFException("Unexpected end of entry (" + entry.getName() + ")");
+            }
+            byte[] head = emptyBlocks(bits);
+            int mask = (1 << bits) - 1;
+            head[head.length - 1] = (byte) ((head[head.length - 1] & mask) | (first & ~mask));
+            is = new SequenceInputStream(new ByteArrayInputStream(head), is);
+        }
+        raw = is;
+        if (inflater == null) {
+            inflater = CodecPool.acquireInflater();
+        } else {
+            inflater.reset();
+        }
+        if (target.window.length > 0) {
+            inflater.setDictionary(target.window);
+        }
+        position = target.out;
+    }
+
+    /**
+     * 生成不输出任何数据的非最终数据块，总比特数除以8余bits，最后一个字节只有低bits位有效
+     * <p>
+     * 固定Huffman编码的空数据块为10比特；动态Huffman编码的空数据块为97比特，用于奇数的情况。
+     */
+    static byte[] emptyBlocks(int bits) {
+        BitWriter writer = new BitWriter();
+        if ((bits & 1) != 0) {
+            // BFINAL=0, BTYPE=2, HLIT=0, HDIST=0, HCLEN=14
+            writer.bits(0, 1);
+            writer.bits(2, 2);
+            writer.bits(0, 5);
+            writer.bits(0, 5);
+            writer.bits(14, 4);
+            // 码长编码：1为'0'，17为'10'，18为'11'，按16,17,18,0,8,7,9,6,10,5,11,4,12,3,13,2,14,1的顺序
+            for (int i = 0; i < 18; i++) {
+                writer.bits(i == 1 || i == 2 ? 2 : i == 17 ? 1 : 0, 3);
+            }
+            // 字面量0~255的码长为0：138个、110个与8个0
+            writer.code(3, 2);
+            writer.bits(138 - 11, 7);
+            writer.code(3, 2);
+            writer.bits(110 - 11, 7);
+            writer.code(2, 2);
+            writer.bits(8 - 3, 3);
+            // 结束符与距离0的码长都为1
+            writer.code(0, 1);
+            writer.code(0, 1);
+            // 结束符
+            writer.code(0, 1);
+        }
+        while ((writer.count & 7) != bits) {
+            // BFINAL=0, BTYPE=1, 结束符0000000
+            writer.bits(0, 1);
+            writer.bits(1, 2);
+            writer.code(0, 7);
+        }
+        return writer.toByteArray();
+    }
+
+    private void skipFully(long n) throws IOException {
+        byte[] buf = new byte[(int) Math.min(n, BUFFER_SIZE)];
+        while (n > 0) {
+            int len = read(buf, 0, (int) Math.min(n, buf.length));
+            if (len == -1) {
+                throw new EOFException("Unexpected end of entry (" + entry.getName() + ")");
+            }
+            n -= len;
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        if (len == 0) {
+            return 0;
+        }
+        if (input == null) {
+            int n = raw.read(b, off, len);
+            if (n > 0) {
+                position += n;
+            }
+            return n;
+        }
+        try {
+            while (true) {
+                int n = inflater.inflate(b, off, len);
+                if (n > 0) {
+                    position += n;
+                    return n;
+                }
+                if (inflater.finished() || inflater.needsDictionary()) {
+                    return -1;
+                }
+                if (inflater.needsInput()) {
+                    int count = raw.read(input, 0, input.length);
+                    if (count == -1) {
+                        throw new EOFException("Unexpected end of entry (" + entry.getName() + ")");
+                    }
+                    inflater.setInput(input, 0, count);
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new ZipException("Error: " + e.getMessage() + " (" + entry.getName() + ")");
+        }
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        ensureOpen();
+        long target = Math.min(entry.getSize(), position + Math.max(n, 0));
+        long skipped = target - position;
+        seek(target);
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return (int) Math.min(entry.getSize() - position, Integer.MAX_VALUE);
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            if (inflater != null) {
+                CodecPool.releaseInflater(inflater);
+            }
+            BufferPool.release(input);
+        }
+    }
+
+    private static class BitWriter {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        private int buffer;
+        private int count;
+
+        /**
+         * 按从低位到高位的顺序写入，用于头部字段与额外比特
+         */
+        void bits(int value, int length) {
+            for (int i = 0; i < length; i++) {
+                bit((value >>> i) & 1);
+            }
+        }
+
+        /**
+         * 按从高位到低位的顺序写入，用于Huffman编码
+         */
+        void code(int code, int length) {
+            for (int i = length - 1; i >= 0; i--) {
+                bit((code >>> i) & 1);
+            }
+        }
+
+        private void bit(int bit) {
+            buffer |= bit << (count & 7);
+            count++;
+            if ((count & 7) == 0) {
+                out.write(buffer);
+                buffer = 0;
+            }
+        }
+
+        byte[] toByteArray() {
+            if ((count & 7) != 0) {
+                out.write(buffer);
+            }
+            return out.toByteArray();
+        }
+    }
+
+}
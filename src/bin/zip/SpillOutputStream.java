@@ -0,0 +1,114 @@
+package bin.zip;
+
+import bin.io.BufferPool;
+import bin.io.RandomAccessFile;
+
+import java.io.*;
+import java.util.ArrayList;
+
+/**
+ * 先写入池中的内存块，超过内存上限后写入临时文件
+ *
+ * @author Bin
+ */
+class SpillOutputStream extends OutputStream {
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final long memoryLimit;
+    private final ArrayList<byte[]> chunks = new ArrayList<>();
+    private int chunkPos;
+    private File spillFile;
+    private OutputStream spillOutput;
+    private long count;
+
+    SpillOutputStream(long memoryLimit) {
+        this.memoryLimit = memoryLimit;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (spillOutput == null) {
+            while (len > 0) {
+                byte[] chunk = chunks.isEmpty() ? null : chunks.get(chunks.size() - 1);
+                if (chunk == null || chunkPos == chunk.length) {
+                    if ((long) chunks.size() * CHUNK_SIZE >= memoryLimit) {
+                        spillFile = File.createTempFile("zipmaker", ".tmp");
+                        spillOutput = new FileOutputStream(spillFile);
+                        break;
+                    }
+                    chunk = BufferPool.acquire(CHUNK_SIZE);
+                    chunks.add(chunk);
+                    chunkPos = 0;
+                }
+                int n = Math.min(len, chunk.length - chunkPos);
+                System.arraycopy(b, off, chunk, chunkPos, n);
+                chunkPos += n;
+                off += n;
+                len -= n;
+                count += n;
+            }
+        }
+        if (len > 0) {
+            spillOutput.write(b, off, len);
+            count += len;
+        }
+    }
+
+    long getCount() {
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (spillOutput != null) {
+            spillOutput.close();
+        }
+    }
+
+    void writeTo(OutputStream os) throws IOException {
+        for (int i = 0; i < chunks.size(); i++) {
+            byte[] chunk = chunks.get(i);
+            os.write(chunk, 0, i == chunks.size() - 1 ? chunkPos : chunk.length);
+        }
+        if (spillFile != null) {
+            byte[] buffer = BufferPool.acquire(CHUNK_SIZE);
+            try (InputStream is = new FileInputStream(spillFile)) {
+                int len;
+                while ((len = is.read(buffer)) != -1) {
+                    os.write(buffer, 0, len);
+                }
+            } finally {
+                BufferPool.release(buffer);
+            }
+        }
+    }
+
+    void writeTo(RandomAccessFile archive) throws IOException {
+        writeTo(new BridgeOutputStream(archive));
+    }
+
+    /**
+     * 归还内存块并删除临时文件
+     */
+    void release() {
+        for (byte[] chunk : chunks) {
+            BufferPool.release(chunk);
+        }
+        chunks.clear();
+        if (spillFile != null) {
+            try {
+                close();
+            } catch (IOException ignored) {
+            }
+            //noinspection ResultOfMethodCallIgnored
+            spillFile.delete();
+            spillFile = null;
+        }
+    }
+
+}
@@ -15,6 +15,16 @@ interface ZipConstant {
 
     int UFT8_NAMES_FLAG = 1 << 11;
 
+    /**
+     * the entry is encrypted
+     */
+    int ENCRYPTED_FLAG = 1;
+
+    /**
+     * crc-32, compressed size and uncompressed size follow the data in a data descriptor
+     */
+    int DATA_DESCRIPTOR_FLAG = 1 << 3;
+
     int EXTRA_HEADER_UNICODE_NAME = 0x7075;
     int EXTRA_HEADER_UNICODE_COMMENT = 0x6375;
 
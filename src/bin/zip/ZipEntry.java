@@ -15,6 +15,10 @@ public class ZipEntry {
     private int method;
     private String name;
     private long time;
+    /**
+     * 从文件中读取的DOS时间，调用 {@link #setTime(long)} 后为-1
+     */
+    private long dosTime = -1;
     private int crc;
     private long compressedSize = UNKNOWN_SIZE;
     private long size = UNKNOWN_SIZE;
@@ -62,13 +66,26 @@ public class ZipEntry {
 
     public void setTime(long time) {
         this.time = time;
+        this.dosTime = -1;
+    }
+
+    void setDosTime(long dosTime) {
+        this.time = ZipUtil.dosToJavaTime(dosTime);
+        this.dosTime = dosTime;
+    }
+
+    /**
+     * 优先返回读取时的DOS时间，与时区无关，夏令时切换附近的时间也不会在换算中改变
+     */
+    public int getDosTime() {
+        return (int) (dosTime == -1 ? ZipUtil.javaToDosTime(time) : dosTime);
     }
 
     public int getCrc() {
         return crc;
     }
 
-    void setCrc(int crc) {
+    public void setCrc(int crc) {
         this.crc = crc;
     }
 
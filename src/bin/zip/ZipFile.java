@@ -4,26 +4,88 @@ import bin.io.RandomAccessFactory;
 import bin.io.RandomAccessFile;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.function.Consumer;
+import java.util.zip.Inflater;
 
 import static bin.zip.ZipConstant.*;
 
 /**
+ * 默认模式下所有读取共用archive的读写位置与缓冲区，多个线程同时读取时会互相等待。
+ * <p>
+ * 以并发模式打开时（见 {@link #ZipFile(File, boolean)}），条目数据通过内存映射切片或定位读取访问，
+ * 每个数据流拥有独立的位置与缓冲区，所有公开方法都是线程安全的，多个线程可以同时读取不同条目。
+ *
  * @author Bin
  */
 public class ZipFile implements Closeable {
+    /**
+     * 嵌套路径的分隔符，如 assets/base.apk!/assets/split.apk
+     */
+    public static final String NESTED_SEPARATOR = "!/";
+
     private final RandomAccessFile archive;
+    // 嵌套时为外层ZipFile，与根ZipFile共用archive
+    private final ZipFile parent;
+    // 在外层ZipFile中的数据偏移
+    private final long parentOffset;
+    // 在根ZipFile中的数据偏移
+    private final long archiveOffset;
+    private final long archiveLength;
+    private final boolean concurrent;
+    private final Map<String, ZipFile> nestedZipFiles = new HashMap<>();
+    private RandomAccessFile nestedArchive;
     private final Map<String, ZipEntry> entries = new LinkedHashMap<>();
+    private ZipEntry[] entryArray;
+    private List<ZipEntry> entryList;
+    // 按名称排序，用于前缀与范围查询
+    private volatile SortedIndex sortedIndex;
+    private volatile ByteBuffer mappedArchive;
+    private volatile boolean unmappable;
+    private long centralDirOffset;
+    private byte[] commentData;
 
     public ZipFile(File file) throws IOException {
         this(RandomAccessFactory.from(file, "r"));
     }
 
+    /**
+     * @param concurrent 是否以线程安全的并发模式打开
+     */
+    public ZipFile(File file, boolean concurrent) throws IOException {
+        this(RandomAccessFactory.from(file, "r"), concurrent);
+    }
+
     public ZipFile(RandomAccessFile archive) throws IOException {
+        this(archive, false);
+    }
+
+    /**
+     * @param concurrent 是否以线程安全的并发模式打开，archive必须是只读的
+     */
+    public ZipFile(RandomAccessFile archive, boolean concurrent) throws IOException {
         this.archive = archive;
+        this.concurrent = concurrent;
+        this.parent = null;
+        this.parentOffset = 0;
+        this.archiveOffset = 0;
+        this.archiveLength = -1;
         readEntries();
     }
 
+    private ZipFile(ZipFile parent, ZipEntry entry) throws IOException {
+        this.archive = parent.archive;
+        this.parent = parent;
+        this.parentOffset = entry.getDataOffset();
+        this.archiveOffset = parent.archiveOffset + entry.getDataOffset();
+        this.archiveLength = entry.getCompressedSize();
+        this.concurrent = parent.concurrent;
+        synchronized (archive) {
+            readEntries();
+        }
+    }
+
     public ZipEntry getEntry(String name) {
         return entries.get(name);
     }
@@ -36,14 +98,126 @@ public class ZipFile implements Closeable {
         return entry;
     }
 
+    /**
+     * @return 所有条目的副本，只需遍历时请使用 {@link #entries()} 或 {@link #forEachEntry(Consumer)}
+     */
     public ArrayList<ZipEntry> getEntries() {
         return new ArrayList<>(entries.values());
     }
 
+    /**
+     * @return 所有条目的只读视图，按数据偏移排序，不会复制
+     */
+    public List<ZipEntry> entries() {
+        return entryList;
+    }
+
+    /**
+     * @return 文件注释，按UTF-8解码，没有注释时为null
+     */
+    public String getComment() {
+        return commentData == null ? null : new String(commentData, UTF_8);
+    }
+
+    /**
+     * @return 中央目录的偏移，相对于本ZipFile的数据开头
+     */
+    long getCentralDirectoryOffset() {
+        return centralDirOffset;
+    }
+
+    public boolean isConcurrent() {
+        return concurrent;
+    }
+
     public int getEntrySize() {
         return entries.size();
     }
 
+    public void forEachEntry(Consumer<? super ZipEntry> action) {
+        ZipEntry[] array = entryArray;
+        for (ZipEntry entry : array) {
+            action.accept(entry);
+        }
+    }
+
+    /**
+     * 获取名称以prefix开头的所有条目，如 lib/arm64-v8a/
+     *
+     * @return 按名称排序的只读视图
+     */
+    public List<ZipEntry> getEntriesWithPrefix(String prefix) {
+        SortedIndex index = getSortedIndex();
+        int from = lowerBound(index.array, prefix);
+        int to = prefixUpperBound(index.array, from, prefix);
+        return index.list.subList(from, to);
+    }
+
+    /**
+     * 获取名称位于[fromName, toName)之间的所有条目
+     *
+     * @return 按名称排序的只读视图
+     */
+    public List<ZipEntry> getEntriesInRange(String fromName, String toName) {
+        SortedIndex index = getSortedIndex();
+        int from = lowerBound(index.array, fromName);
+        int to = Math.max(from, lowerBound(index.array, toName));
+        return index.list.subList(from, to);
+    }
+
+    public void forEachEntryWithPrefix(String prefix, Consumer<? super ZipEntry> action) {
+        ZipEntry[] array = getSortedIndex().array;
+        int from = lowerBound(array, prefix);
+        int to = prefixUpperBound(array, from, prefix);
+        for (int i = from; i < to; i++) {
+            action.accept(array[i]);
+        }
+    }
+
+    private SortedIndex getSortedIndex() {
+        SortedIndex index = sortedIndex;
+        if (index == null) {
+            ZipEntry[] array = entryArray.clone();
+            Arrays.sort(array, (e1, e2) -> e1.getName().compareTo(e2.getName()));
+            sortedIndex = index = new SortedIndex(array);
+        }
+        return index;
+    }
+
+    /**
+     * @return 第一个名称不小于name的位置
+     */
+    private static int lowerBound(ZipEntry[] array, String name) {
+        int low = 0;
+        int high = array.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (array[mid].getName().compareTo(name) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * 名称以prefix开头的条目在排序后是连续的，返回第一个不以prefix开头的位置
+     */
+    private static int prefixUpperBound(ZipEntry[] array, int from, String prefix) {
+        int low = from;
+        int high = array.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (array[mid].getName().startsWith(prefix)) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
     private void readEntries() throws IOException {
         EocdRecord eocdRecord = readEocdRecord();
         if (eocdRecord == null) {
@@ -51,6 +225,7 @@ public class ZipFile implements Closeable {
         }
         List<ZipEntry> list = new ArrayList<>();
         boolean zip64 = eocdRecord.zip64;
+        centralDirOffset = eocdRecord.centralDirOffset;
         _seek(eocdRecord.centralDirOffset);
         while (_readInt() == CFH_SIG) {
             ZipEntry ze = new ZipEntry();
@@ -61,7 +236,7 @@ public class ZipFile implements Closeable {
 
             ze.setGeneralPurposeFlag(_readUShort());
             ze.setMethod(_readUShort());
-            ze.setTime(ZipUtil.dosToJavaTime(_readUInt()));
+            ze.setDosTime(_readUInt());
             ze.setCrc(_readInt());
 
             ze.setCompressedSize(_readUInt());
@@ -127,6 +302,9 @@ public class ZipFile implements Closeable {
                 entries.put(key, entry);
             }
         }
+        entryArray = entries.values().toArray(new ZipEntry[0]);
+        entryList = Collections.unmodifiableList(Arrays.asList(entryArray));
+        sortedIndex = null;
     }
 
     private EocdRecord readEocdRecord() throws IOException {
@@ -152,7 +330,7 @@ public class ZipFile implements Closeable {
             EocdRecord record = parseEocdRecord(off + 4, (zip64EocdRecordOffset != -1) /* isZip64 */);
             if (record.commentLength > 0) {
                 try {
-                    _readBytes(record.commentLength);
+                    commentData = _readBytes(record.commentLength);
                 } catch (IOException ignored) {
                     record = new EocdRecord(record.numEntries, record.centralDirOffset, 0, record.zip64);
                 }
@@ -232,16 +410,30 @@ public class ZipFile implements Closeable {
     }
 
     public InputStream getRawInputStream(ZipEntry ze) {
-        return new BridgeInputStream(archive, ze.getDataOffset(), ze.getCompressedSize());
+        return newBridgeInputStream(ze.getDataOffset(), ze.getCompressedSize(), concurrent);
+    }
+
+    /**
+     * @param concurrent 为true时无论当前模式如何，都通过映射或定位读取访问数据
+     */
+    InputStream getRawInputStream(ZipEntry ze, boolean concurrent) {
+        return newBridgeInputStream(ze.getDataOffset(), ze.getCompressedSize(), concurrent);
+    }
+
+    /**
+     * 从offset开始读取条目未解压的原始数据
+     */
+    InputStream getRawInputStream(ZipEntry ze, long offset) {
+        return newBridgeInputStream(ze.getDataOffset() + offset, ze.getCompressedSize() - offset, concurrent);
     }
 
     public InputStream getInputStream(ZipEntry ze) throws IOException {
         long start = ze.getDataOffset();
         int method = ze.getMethod();
-        InputStream is = new BridgeInputStream(archive, start, method == METHOD_STORED ? ze.getSize() : ze.getCompressedSize());
+        InputStream is = newBridgeInputStream(start, method == METHOD_STORED ? ze.getSize() : ze.getCompressedSize(), concurrent);
         switch (method) {
             case METHOD_DEFLATED:
-                is = new NoWrapInflaterInputStream(ze, is);
+                is = concurrent ? new NoWrapInflaterInputStream(ze, is, 8 * 1024) : new NoWrapInflaterInputStream(ze, is);
                 break;
             case METHOD_STORED:
                 break;
@@ -249,35 +441,291 @@ public class ZipFile implements Closeable {
                 throw new IOException("Unsupported compression method " + ze.getMethod() + " (" + ze.getName() + ")");
         }
         if (method != METHOD_STORED) {
-            is = new BufferedInputStream(is, 64 * 1024);
+            is = new PooledBufferedInputStream(is, 64 * 1024);
         }
         return is;
     }
 
+    private InputStream newBridgeInputStream(long offset, long length, boolean concurrent) {
+        if (!concurrent) {
+            return new BridgeInputStream(archive, archiveOffset + offset, length);
+        }
+        try {
+            return new ByteBufferInputStream(map(offset, length));
+        } catch (IOException e) {
+            // 无法映射时使用定位读取
+            return new PositionalInputStream(archive, archiveOffset + offset, length);
+        }
+    }
+
+    /**
+     * 获取条目未解压的原始数据，数据直接映射自文件，不产生复制
+     */
+    public ByteBuffer getRawByteBuffer(ZipEntry ze) throws IOException {
+        return map(ze.getDataOffset(), ze.getCompressedSize());
+    }
+
+    /**
+     * 获取条目数据
+     * <p>
+     * 存储方式的条目直接返回映射自文件的只读切片；压缩方式的条目从映射数据直接解压到新分配的
+     * direct buffer，需要复用缓冲区时请使用 {@link #read(ZipEntry, ByteBuffer)}
+     */
+    public ByteBuffer getByteBuffer(ZipEntry ze) throws IOException {
+        switch (ze.getMethod()) {
+            case METHOD_STORED:
+                return map(ze.getDataOffset(), ze.getSize());
+            case METHOD_DEFLATED:
+                if (ze.getSize() > Integer.MAX_VALUE) {
+                    throw new IOException("Entry too large: " + ze.getName());
+                }
+                ByteBuffer buffer = ByteBuffer.allocateDirect((int) ze.getSize());
+                read(ze, buffer);
+                buffer.flip();
+                return buffer.asReadOnlyBuffer();
+            default:
+                throw new IOException("Unsupported compression method " + ze.getMethod() + " (" + ze.getName() + ")");
+        }
+    }
+
+    /**
+     * 将条目数据解压或复制到dst的当前位置，dst剩余空间必须能容纳整个条目
+     *
+     * @return 写入的数据长度
+     */
+    public int read(ZipEntry ze, ByteBuffer dst) throws IOException {
+        if (dst.remaining() < ze.getSize()) {
+            throw new IOException("Buffer too small: remaining=" + dst.remaining() + ", size=" + ze.getSize() + " (" + ze.getName() + ")");
+        }
+        switch (ze.getMethod()) {
+            case METHOD_STORED:
+                ByteBuffer src = map(ze.getDataOffset(), ze.getSize());
+                int len = src.remaining();
+                dst.put(src);
+                return len;
+            case METHOD_DEFLATED:
+                Inflater inflater = CodecPool.acquireInflater();
+                try {
+                    return ByteBufferInflater.inflate(inflater, getRawByteBuffer(ze), dst, ze.getName());
+                } finally {
+                    CodecPool.releaseInflater(inflater);
+                }
+            default:
+                throw new IOException("Unsupported compression method " + ze.getMethod() + " (" + ze.getName() + ")");
+        }
+    }
+
+    private ByteBuffer map(long offset, long length) throws IOException {
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("Region too large to map: " + length);
+        }
+        if (parent != null) {
+            // 嵌套的ZipFile直接使用根ZipFile的映射
+            if (offset < 0 || offset + length > archiveLength) {
+                throw new EOFException();
+            }
+            return parent.map(parentOffset + offset, length);
+        }
+        ByteBuffer mapped = mappedArchive;
+        if (mapped == null) {
+            synchronized (this) {
+                mapped = mappedArchive;
+                if (mapped == null) {
+                    long archiveLength = _length();
+                    if (archiveLength > Integer.MAX_VALUE || unmappable) {
+                        // 超过2G无法整体映射，只映射需要的区域
+                        return mapRegion(offset, length);
+                    }
+                    try {
+                        mappedArchive = mapped = archive.map(0, archiveLength);
+                    } catch (UnsupportedOperationException e) {
+                        unmappable = true;
+                        return mapRegion(offset, length);
+                    }
+                }
+            }
+        }
+        if (offset < 0 || offset + length > mapped.capacity()) {
+            throw new EOFException();
+        }
+        ByteBuffer buffer = mapped.duplicate();
+        buffer.position((int) offset);
+        buffer.limit((int) (offset + length));
+        return buffer.slice();
+    }
+
+    /**
+     * archive不支持映射时把区域读取到堆内存中
+     */
+    private ByteBuffer mapRegion(long offset, long length) throws IOException {
+        if (!unmappable) {
+            try {
+                return archive.map(offset, length);
+            } catch (UnsupportedOperationException e) {
+                unmappable = true;
+            }
+        }
+        if (offset < 0 || offset + length > _length()) {
+            throw new EOFException();
+        }
+        byte[] data = new byte[(int) length];
+        int count = 0;
+        while (count < data.length) {
+            int len = archive.read(offset + count, data, count, data.length - count);
+            if (len == -1) {
+                throw new EOFException();
+            }
+            count += len;
+        }
+        return ByteBuffer.wrap(data).asReadOnlyBuffer();
+    }
+
+    /**
+     * 为压缩条目建立随机访问索引，检查点间隔为 {@link DeflateIndex#DEFAULT_SPAN}
+     */
+    public DeflateIndex buildDeflateIndex(ZipEntry ze) throws IOException {
+        return buildDeflateIndex(ze, DeflateIndex.DEFAULT_SPAN);
+    }
+
+    /**
+     * 为压缩条目建立随机访问索引，需要完整解压一次条目
+     *
+     * @param span 检查点之间的最小间隔，越小定位越快，索引也越大
+     */
+    public DeflateIndex buildDeflateIndex(ZipEntry ze, long span) throws IOException {
+        try (InputStream is = getRawInputStream(ze)) {
+            return DeflateIndex.build(ze, is, span);
+        }
+    }
+
+    /**
+     * 获取可以定位到任意解压偏移的输入流
+     *
+     * @param index 压缩条目的随机访问索引，存储方式的条目可以为null
+     */
+    public SeekableEntryInputStream getSeekableInputStream(ZipEntry ze, DeflateIndex index) throws IOException {
+        switch (ze.getMethod()) {
+            case METHOD_STORED:
+                break;
+            case METHOD_DEFLATED:
+                if (index == null || !index.isValidFor(ze)) {
+                    throw new IOException("Deflate index does not match entry: " + ze.getName());
+                }
+                break;
+            default:
+                throw new IOException("Unsupported compression method " + ze.getMethod() + " (" + ze.getName() + ")");
+        }
+        return new SeekableEntryInputStream(this, ze, index);
+    }
+
+    /**
+     * 使用所有CPU核心校验每个条目的CRC与体积
+     */
+    public ZipVerifier.Result verify() throws IOException {
+        return verify(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * 使用指定数量的线程校验每个条目的CRC与体积
+     */
+    public ZipVerifier.Result verify(int threads) throws IOException {
+        return new ZipVerifier(this, threads).verify();
+    }
+
+    long getArchiveLength() throws IOException {
+        return _length();
+    }
+
     public ZipFile openEntryAsZipFile(ZipEntry entry) throws IOException {
         if (entry.getMethod() != METHOD_STORED) {
             throw new IOException("Entry is not stored: " + entry.getName());
         }
-        return new ZipFile(archive.newFragment(entry.getDataOffset(), entry.getCompressedSize()));
+        return new ZipFile(archive.newFragment(archiveOffset + entry.getDataOffset(), entry.getCompressedSize()), concurrent);
+    }
+
+    /**
+     * 打开任意深度的嵌套ZIP，如 assets/base.apk!/assets/split.apk
+     * <p>
+     * 嵌套的ZipFile只是根文件上的偏移，与根ZipFile共用文件句柄和缓冲区，解析结果会被缓存，
+     * 重复打开不会产生额外IO。返回的ZipFile由根ZipFile管理，关闭它不会产生任何效果，
+     * 根ZipFile关闭后将无法继续使用。
+     *
+     * @param path 以 {@link #NESTED_SEPARATOR} 分隔的嵌套路径，每一层都必须以存储方式打包
+     */
+    public ZipFile open(String path) throws IOException {
+        ZipFile zipFile = this;
+        int start = 0;
+        while (start < path.length()) {
+            int end = path.indexOf(NESTED_SEPARATOR, start);
+            if (end == -1) {
+                end = path.length();
+            }
+            zipFile = zipFile.openNested(path.substring(start, end));
+            start = end + NESTED_SEPARATOR.length();
+        }
+        return zipFile;
     }
 
+    private ZipFile openNested(String name) throws IOException {
+        synchronized (nestedZipFiles) {
+            ZipFile zipFile = nestedZipFiles.get(name);
+            if (zipFile == null) {
+                ZipEntry entry = getEntryNonNull(name);
+                if (entry.getMethod() != METHOD_STORED) {
+                    throw new IOException("Entry is not stored: " + entry.getName());
+                }
+                zipFile = new ZipFile(this, entry);
+                nestedZipFiles.put(name, zipFile);
+            }
+            return zipFile;
+        }
+    }
+
+    public ZipFile getParent() {
+        return parent;
+    }
+
+    /**
+     * 嵌套的ZipFile会返回一个独立的文件片段，由根ZipFile负责关闭
+     *
+     * @throws UncheckedIOException 创建嵌套的文件片段失败
+     */
     public RandomAccessFile getArchive() {
-        return archive;
+        try {
+            return openArchive();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * 与 {@link #getArchive()} 相同，嵌套的文件片段在第一次调用时创建
+     */
+    RandomAccessFile openArchive() throws IOException {
+        if (parent == null) {
+            return archive;
+        }
+        synchronized (nestedZipFiles) {
+            if (nestedArchive == null) {
+                nestedArchive = archive.newFragment(archiveOffset, archiveLength);
+            }
+            return nestedArchive;
+        }
     }
 
     private long _length() throws IOException {
-        return archive.length();
+        return parent == null ? archive.length() : archiveLength;
     }
 
     private void _seek(long position) throws IOException {
-        archive.seek(position);
+        archive.seek(archiveOffset + position);
     }
 
     private void _skip(long length) throws IOException {
         if (length < 0)
             throw new IOException("Skip " + length);
         long pos = archive.getFilePointer() + length;
-        long len = archive.length();
+        long len = archiveOffset + _length();
         if (pos > len)
             throw new EOFException();
         archive.seek(pos);
@@ -320,12 +768,36 @@ public class ZipFile implements Closeable {
 
     @Override
     public void close() throws IOException {
-        if (closed)
+        if (closed || parent != null)
             return;
+        closeNested();
         archive.close();
         closed = true;
     }
 
+    private void closeNested() throws IOException {
+        synchronized (nestedZipFiles) {
+            for (ZipFile zipFile : nestedZipFiles.values()) {
+                zipFile.closeNested();
+            }
+            nestedZipFiles.clear();
+            if (nestedArchive != null) {
+                nestedArchive.close();
+                nestedArchive = null;
+            }
+        }
+    }
+
+    private static class SortedIndex {
+        final ZipEntry[] array;
+        final List<ZipEntry> list;
+
+        SortedIndex(ZipEntry[] array) {
+            this.array = array;
+            this.list = Collections.unmodifiableList(Arrays.asList(array));
+        }
+    }
+
     private static class EocdRecord {
         final long numEntries;
         final long centralDirOffset;
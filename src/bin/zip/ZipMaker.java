@@ -1,15 +1,28 @@
 package bin.zip;
 
+import bin.io.BufferPool;
+import bin.io.OutputStreamRandomAccessFile;
 import bin.io.RandomAccessFactory;
 import bin.io.RandomAccessFile;
 
 import java.io.*;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.Charset;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.zip.Deflater;
+import java.util.zip.ZipException;
 
 import static bin.zip.ZipConstant.*;
 
@@ -26,8 +39,41 @@ public class ZipMaker implements Closeable {
     public static final int METHOD_DEFLATED = ZipConstant.METHOD_DEFLATED;
     public static final int METHOD_STORED = ZipConstant.METHOD_STORED;
 
+    public static final int DEFAULT_BLOCK_SIZE = 128 * 1024;
+
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+    private static final int BULK_COPY_BUFFER_SIZE = 1024 * 1024;
+    /**
+     * 1980-01-01 00:00，DOS时间能表示的最早时间
+     */
+    private static final int DOS_EPOCH = (1 << 21) | (1 << 16);
+    private static final long LAYOUT_SEGMENT_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * 穷举压缩默认尝试的压缩方式
+     */
+    public static final List<Compression> EXHAUSTIVE_CANDIDATES = Collections.unmodifiableList(Arrays.asList(
+            Compression.deflated(LEVEL_BEST),
+            Compression.deflated(LEVEL_BEST, Deflater.FILTERED),
+            Compression.deflated(LEVEL_BETTER, Deflater.FILTERED),
+            Compression.deflated(4),
+            Compression.deflated(LEVEL_BEST, Deflater.HUFFMAN_ONLY),
+            Compression.STORED
+    ));
+
+    private static final long PARALLEL_MEMORY_LIMIT = 4 * 1024 * 1024;
+
+    private static final long STORED_BUFFER_MEMORY_LIMIT = 16 * 1024 * 1024;
+
     private final RandomAccessFile archive;
 
+    private final boolean streaming;
+
+    /**
+     * 在已有文件上追加，见 {@link ZipUpdater}
+     */
+    private final boolean appending;
+
     private final ArrayList<CenterFileHeader> headers = new ArrayList<>();
 
     private CenterFileHeader currentHeader;
@@ -36,6 +82,22 @@ public class ZipMaker implements Closeable {
 
     private int level = LEVEL_DEFAULT;
 
+    private CompressionPolicy compressionPolicy;
+
+    private AlignmentPolicy alignmentPolicy = AlignmentPolicy.PAGE_4K;
+
+    private LevelTuner levelTuner;
+
+    private List<Compression> exhaustiveCandidates;
+
+    private Compression exhaustiveBaseline;
+
+    private CompressionReport compressionReport;
+
+    private TimingOutputStream timingOutput;
+
+    private int entryLevel;
+
     private Charset encoding = ZipConstant.UTF_8;
 
     private String comment;
@@ -46,8 +108,58 @@ public class ZipMaker implements Closeable {
 
     private CrcOutputStream topOutput;
 
+    private ParallelDeflaterOutputStream blockOutput;
+
+    private ParallelCrcOutputStream crcOutput;
+
+    private OutputStream entryOutput;
+
     private BridgeOutputStream bottomOutput;
 
+    private SpillOutputStream storedBuffer;
+
+    private DeflateCache deflateCache;
+
+    private MessageDigest cacheDigest;
+
+    private SpillOutputStream cacheBuffer;
+
+    private Compression cacheCompression;
+
+    private int expectedCrc;
+
+    private long expectedSize;
+
+    /**
+     * 本地头部与中央目录记录先编码到这里，再一次性写入
+     */
+    private byte[] headerBuffer = new byte[1024];
+
+    private int headerLength;
+
+    private ParallelCompressor compressor;
+
+    private int maxPendingEntries;
+
+    private ExecutorService blockExecutor;
+
+    private int blockSize;
+
+    private int maxPendingBlocks;
+
+    private int crcThreads = Runtime.getRuntime().availableProcessors();
+
+    private ExecutorService crcExecutor;
+
+    private boolean deterministic;
+
+    /**
+     * 确定性模式下按名称新建的条目使用的DOS时间
+     */
+    private int deterministicTime = DOS_EPOCH;
+
+    private final ArrayDeque<PendingEntry> pendingEntries = new ArrayDeque<>();
+
     public ZipMaker(String path) throws IOException {
         this(new File(path));
     }
@@ -57,6 +169,50 @@ public class ZipMaker implements Closeable {
             //noinspection ResultOfMethodCallIgnored
             file.delete();
         this.archive = RandomAccessFactory.from(file, "rw");
+        this.streaming = false;
+        this.appending = false;
+    }
+
+    /**
+     * 保留已有的条目，从appendOffset开始写入新的条目与中央目录
+     *
+     * @param existing 已有条目的文件头，需要设置headerOffset与dataOffset
+     */
+    ZipMaker(RandomAccessFile archive, long appendOffset, List<CenterFileHeader> existing) throws IOException {
+        this.archive = archive;
+        this.streaming = false;
+        this.appending = true;
+        for (CenterFileHeader header : existing) {
+            setupNeedZip64(header);
+            headers.add(header);
+        }
+        archive.seek(appendOffset);
+    }
+
+    /**
+     * 流式输出，无法回写本地文件头
+     * <p>
+     * 压缩条目的CRC与体积写在紧随数据的data descriptor中；存储条目要求在 {@link #putNextEntry(ZipEntry)}
+     * 时通过ZipEntry给出CRC与体积，否则会先缓存整个条目，结束后再写入；
+     * {@link #copyZipEntry}、{@link #submitEntry} 等预先知道CRC与体积的条目直接写入最终的文件头。
+     */
+    public ZipMaker(OutputStream os) {
+        this.archive = new OutputStreamRandomAccessFile(os);
+        this.streaming = true;
+        this.appending = false;
+    }
+
+    /**
+     * @see #ZipMaker(OutputStream)
+     */
+    public ZipMaker(WritableByteChannel channel) {
+        this.archive = new OutputStreamRandomAccessFile(channel);
+        this.streaming = true;
+        this.appending = false;
+    }
+
+    public boolean isStreaming() {
+        return streaming;
     }
 
     public void setForceZip64(boolean forceZip64) {
@@ -87,6 +243,148 @@ public class ZipMaker implements Closeable {
         return level;
     }
 
+    /**
+     * 设置压缩策略，压缩方式为DEFLATED时由策略为每个条目选择存储或压缩以及压缩等级
+     * <p>
+     * 通过 {@link #putNextEntry} 写入的条目只能根据名称选择；通过 {@link #submitEntry} 添加的条目还会根据开头的数据选择，
+     * 压缩效果不够好时改为存储
+     *
+     * @param policy 为null时所有条目使用相同的压缩方式与压缩等级
+     */
+    public void setCompressionPolicy(CompressionPolicy policy) {
+        this.compressionPolicy = policy;
+    }
+
+    public CompressionPolicy getCompressionPolicy() {
+        return compressionPolicy;
+    }
+
+    /**
+     * 设置存储条目的对齐规则，默认为 {@link AlignmentPolicy#PAGE_4K}
+     */
+    public void setAlignmentPolicy(AlignmentPolicy policy) {
+        this.alignmentPolicy = Objects.requireNonNull(policy);
+    }
+
+    public AlignmentPolicy getAlignmentPolicy() {
+        return alignmentPolicy;
+    }
+
+    /**
+     * 设置压缩等级的自动调整，设置后忽略 {@link #setLevel(int)}，由tuner根据实测速度为每个压缩条目选择等级
+     *
+     * @param tuner 为null时关闭自动调整
+     * @see LevelTuner#forThroughput(double)
+     * @see LevelTuner#forTimeBudget(long, long)
+     */
+    public void setLevelTuner(LevelTuner tuner) {
+        if (deterministic && tuner != null) {
+            throw new IllegalStateException("LevelTuner cannot be used in deterministic mode");
+        }
+        this.levelTuner = tuner;
+    }
+
+    /**
+     * @return 可以通过toString获取各压缩等级的统计
+     */
+    public LevelTuner getLevelTuner() {
+        return levelTuner;
+    }
+
+    /**
+     * 设置确定性模式，开启后相同的输入与设置总是得到完全相同的输出，便于按内容缓存
+     * <p>
+     * 按名称新建的条目（包括宿主条目）使用固定的时间1980-01-01 00:00，复制的条目先去除扩展字段中的对齐填充与无效数据，
+     * 填充只由新的位置决定。{@link LevelTuner} 按实测速度选择压缩等级，不能同时使用。
+     */
+    public void setDeterministic(boolean deterministic) {
+        if (deterministic && levelTuner != null) {
+            throw new IllegalStateException("LevelTuner cannot be used in deterministic mode");
+        }
+        this.deterministic = deterministic;
+        this.deterministicTime = DOS_EPOCH;
+    }
+
+    /**
+     * 开启确定性模式，按名称新建的条目使用指定的DOS时间而不是1980-01-01 00:00，如取自源文件中对应的条目
+     *
+     * @param dosTime DOS格式的日期与时间，见 {@link ZipEntry#getDosTime()}
+     */
+    public void setDeterministic(int dosTime) {
+        setDeterministic(true);
+        this.deterministicTime = dosTime;
+    }
+
+    public boolean isDeterministic() {
+        return deterministic;
+    }
+
+    private CenterFileHeader newHeader(String name) {
+        CenterFileHeader header = new CenterFileHeader(name);
+        if (deterministic) {
+            header.time = deterministicTime;
+        }
+        return header;
+    }
+
+    /**
+     * 开启穷举压缩，压缩方式为DEFLATED时通过 {@link #submitEntry} 添加的条目会尝试所有压缩方式，保留能正确解压的最小结果
+     * <p>
+     * 开启并行模式时同一条目的各种压缩方式同时在工作线程中进行。{@link #copyZipEntry}、
+     * {@link #putNextRawEntry}、宿主条目与虚拟条目不会重新压缩，DataMultiplexing复用的数据保持不变；
+     * 压缩策略要求存储的条目直接存储。
+     *
+     * @param candidates 尝试的压缩方式，如 {@link #EXHAUSTIVE_CANDIDATES}，为null时关闭穷举压缩。
+     *                   当前压缩等级作为统计节省体积的基准，也会被尝试
+     * @see #getCompressionReport()
+     */
+    public void setExhaustiveCompression(List<Compression> candidates) throws IOException {
+        writeSubmittedEntries(true);
+        if (candidates == null) {
+            exhaustiveCandidates = null;
+            exhaustiveBaseline = null;
+            compressionReport = null;
+            return;
+        }
+        exhaustiveBaseline = Compression.deflated(level);
+        exhaustiveCandidates = new ArrayList<>(candidates);
+        if (!exhaustiveCandidates.contains(exhaustiveBaseline)) {
+            exhaustiveCandidates.add(exhaustiveBaseline);
+        }
+        compressionReport = new CompressionReport(exhaustiveBaseline);
+    }
+
+    /**
+     * @return 穷举压缩的条目相对基准压缩方式节省的体积，未开启穷举压缩时为null
+     */
+    public CompressionReport getCompressionReport() {
+        return compressionReport;
+    }
+
+    /**
+     * 设置压缩结果的缓存，通过 {@link #putNextEntry} 写入的压缩条目先缓存未压缩的数据，
+     * 结束时按内容查找缓存，命中时直接写入缓存的压缩数据，否则压缩后写入并加入缓存
+     *
+     * @param cache 为null时关闭缓存
+     */
+    public void setDeflateCache(DeflateCache cache) throws IOException {
+        if (currentHeader != null) {
+            closeEntry();
+        }
+        this.deflateCache = cache;
+        if (cache != null && cacheDigest == null) {
+            cacheDigest = DeflateCache.newDigest();
+        }
+    }
+
+    public DeflateCache getDeflateCache() {
+        return deflateCache;
+    }
+
+    private int nextLevel() {
+        return levelTuner == null ? level : levelTuner.nextLevel();
+    }
+
     public void setComment(String comment) {
         this.comment = comment;
     }
@@ -95,17 +393,210 @@ public class ZipMaker implements Closeable {
         return comment;
     }
 
-    private final byte[] copyEntryBuffer = new byte[8 * 1024];
+    /**
+     * 设置并行压缩的线程数，大于1时通过 {@link #submitEntry} 提交的条目会在工作线程中压缩，
+     * 再由调用线程按提交顺序写入；调用其它写入方法前会先等待已提交的条目全部写入
+     */
+    public void setParallelism(int threads) throws IOException {
+        writeSubmittedEntries(true);
+        if (compressor != null) {
+            compressor.close();
+            compressor = null;
+        }
+        if (threads > 1) {
+            compressor = new ParallelCompressor(threads, PARALLEL_MEMORY_LIMIT);
+            maxPendingEntries = threads * 2;
+        }
+    }
+
+    /**
+     * 设置单个条目分块并行压缩的线程数，分块大小为 {@link #DEFAULT_BLOCK_SIZE}
+     */
+    public void setBlockParallelism(int threads) throws IOException {
+        setBlockParallelism(threads, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * 设置单个条目分块并行压缩的线程数，大于1时通过 {@link #putNextEntry} 写入的压缩条目会分块，
+     * 以前一块的最后32K作为字典并行压缩，适合体积很大的条目
+     *
+     * @param blockSize 分块大小，不能小于64K
+     */
+    public void setBlockParallelism(int threads, int blockSize) throws IOException {
+        if (blockSize < ParallelDeflaterOutputStream.MIN_BLOCK_SIZE) {
+            throw new IllegalArgumentException("blockSize=" + blockSize);
+        }
+        if (currentHeader != null) {
+            closeEntry();
+        }
+        if (blockExecutor != null) {
+            blockExecutor.shutdownNow();
+            blockExecutor = null;
+        }
+        if (threads > 1) {
+            blockExecutor = ParallelCompressor.newExecutor(threads);
+            this.blockSize = blockSize;
+            maxPendingBlocks = threads * 2;
+        }
+    }
+
+    /**
+     * 设置计算存储条目CRC的线程数，默认为CPU核心数，为1时在当前线程计算
+     * <p>
+     * 宿主条目按 {@link ParallelCrc32#BLOCK_SIZE} 分块，复制的同时并行计算；通过 {@link #write} 写入的存储条目
+     * 超过 {@link ParallelCrcOutputStream#BLOCK_SIZE} 的部分分块提交到工作线程计算
+     */
+    public void setCrcParallelism(int threads) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("threads=" + threads);
+        }
+        if (crcExecutor != null && threads != crcThreads) {
+            crcExecutor.shutdownNow();
+            crcExecutor = null;
+        }
+        this.crcThreads = threads;
+    }
 
     public void putNextEntry(String name) throws IOException {
-        putNextEntry(new CenterFileHeader(name));
+        putNextEntry(newHeader(name));
     }
 
     public void putNextEntry(ZipEntry ze) throws IOException {
         putNextEntry(new CenterFileHeader(ze));
     }
 
+    /**
+     * 添加条目，使用当前的压缩方式与压缩等级，未开启并行模式时直接在当前线程压缩写入
+     */
+    public void submitEntry(String name, EntrySource source) throws IOException {
+        submitEntry(newHeader(name), source);
+    }
+
+    public void submitEntry(ZipEntry ze, EntrySource source) throws IOException {
+        submitEntry(new CenterFileHeader(ze), source);
+    }
+
+    private void submitEntry(CenterFileHeader header, EntrySource source) throws IOException {
+        boolean usePolicy = compressionPolicy != null && method == METHOD_DEFLATED;
+        boolean exhaustive = exhaustiveCandidates != null && method == METHOD_DEFLATED;
+        if (header.isDirectory || (compressor == null && !usePolicy && !exhaustive)) {
+            putNextEntry(header);
+            if (!header.isDirectory) {
+                try (InputStream is = source.open()) {
+                    writeFully(is);
+                }
+                closeEntry();
+            }
+            return;
+        }
+        if (currentHeader != null) {
+            closeEntry();
+        }
+        if (method != METHOD_DEFLATED && method != METHOD_STORED) {
+            throw new IOException("Unsupported compression method " + method);
+        }
+        header.generalPurposeFlag = header.isUtf8 ? UFT8_NAMES_FLAG : 0;
+        if (exhaustive) {
+            List<Compression> candidates = exhaustiveCandidates;
+            if (usePolicy && compressionPolicy.choose(header.nameStr, null, 0, level).isStored()) {
+                candidates = Collections.singletonList(Compression.STORED);
+            }
+            if (compressor == null) {
+                writeCompressedEntry(header, ParallelCompressor.compress(source, candidates, exhaustiveBaseline, PARALLEL_MEMORY_LIMIT), 1);
+            } else {
+                pendingEntries.add(new PendingEntry(header, compressor.submit(source, candidates, exhaustiveBaseline)));
+                writeSubmittedEntries(false);
+            }
+            return;
+        }
+        if (compressor == null) {
+            writeCompressedEntry(header, ParallelCompressor.compress(source, header.nameStr, nextLevel(), compressionPolicy, PARALLEL_MEMORY_LIMIT), 1);
+            return;
+        }
+        Future<ParallelCompressor.Result> result;
+        if (usePolicy) {
+            result = compressor.submit(source, header.nameStr, nextLevel(), compressionPolicy);
+        } else {
+            result = compressor.submit(source, method, nextLevel());
+        }
+        pendingEntries.add(new PendingEntry(header, result));
+        writeSubmittedEntries(false);
+    }
+
+    /**
+     * 按提交顺序写入已压缩完成的条目
+     *
+     * @param all 为true时等待所有条目压缩完成并写入，否则只在积压过多时等待
+     */
+    private void writeSubmittedEntries(boolean all) throws IOException {
+        PendingEntry entry;
+        while ((entry = pendingEntries.peek()) != null) {
+            if (!all && !entry.result.isDone() && pendingEntries.size() < maxPendingEntries) {
+                return;
+            }
+            pendingEntries.poll();
+            ParallelCompressor.Result result;
+            try {
+                result = entry.result.get();
+            } catch (InterruptedException e) {
+                discardSubmittedEntries();
+                throw new InterruptedIOException("Compression interrupted");
+            } catch (ExecutionException e) {
+                discardSubmittedEntries();
+                Throwable cause = e.getCause();
+                throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+            }
+            writeCompressedEntry(entry.header, result, compressor.getThreads());
+        }
+    }
+
+    /**
+     * @param threads 同时压缩的线程数，用于换算总的吞吐量
+     */
+    private void writeCompressedEntry(CenterFileHeader header, ParallelCompressor.Result result, int threads) throws IOException {
+        Compression compression = result.compression;
+        if (result.baselineSize >= 0) {
+            compressionReport.add(header.nameStr, result.size, result.baselineSize, result.data.getCount(), compression);
+        } else if (levelTuner != null && !compression.isStored()) {
+            levelTuner.record(compression.getLevel(), result.size, result.data.getCount(), result.nanos / threads);
+        }
+        try {
+            header.method = compression.getMethod();
+            header.crc = result.crc;
+            header.size = result.size;
+            header.compressedSize = result.data.getCount();
+            header.headerOffset = _getFilePointer();
+            headers.add(header);
+            writeHeader(header);
+            header.dataOffset = _getFilePointer();
+            result.data.writeTo(archive);
+        } finally {
+            result.data.release();
+        }
+    }
+
+    private void discardSubmittedEntries() {
+        PendingEntry entry;
+        while ((entry = pendingEntries.poll()) != null) {
+            try {
+                entry.result.get().data.release();
+            } catch (InterruptedException | ExecutionException ignored) {
+            }
+        }
+    }
+
+    private static class PendingEntry {
+        final CenterFileHeader header;
+        final Future<ParallelCompressor.Result> result;
+
+        PendingEntry(CenterFileHeader header, Future<ParallelCompressor.Result> result) {
+            this.header = header;
+            this.result = result;
+        }
+    }
+
     private void putNextEntry(CenterFileHeader header) throws IOException {
+        writeSubmittedEntries(true);
         if (currentHeader != null) {
             closeEntry();
         }
@@ -117,6 +608,14 @@ public class ZipMaker implements Closeable {
 
             int generalPurposeFlag = 0;
             int method = this.method;
+            int level = method == METHOD_DEFLATED ? nextLevel() : this.level;
+            int strategy = Deflater.DEFAULT_STRATEGY;
+            if (compressionPolicy != null && method == METHOD_DEFLATED) {
+                Compression compression = compressionPolicy.choose(header.nameStr, null, 0, level);
+                method = compression.getMethod();
+                level = compression.getLevel();
+                strategy = compression.getStrategy();
+            }
 
             bottomOutput = new BridgeOutputStream(archive);
             OutputStream os = bottomOutput;
@@ -124,9 +623,19 @@ public class ZipMaker implements Closeable {
             if (header.isUtf8)
                 generalPurposeFlag |= UFT8_NAMES_FLAG;
 
-            switch (this.method) {
+            switch (method) {
                 case METHOD_DEFLATED:
-                    os = new NoWrapDeflaterOutputStream(os, level);
+                    if (deflateCache != null) {
+                        // 先缓存未压缩的数据，结束时根据内容的摘要查找缓存
+                        cacheBuffer = new SpillOutputStream(STORED_BUFFER_MEMORY_LIMIT);
+                        cacheDigest.reset();
+                        os = new DigestOutputStream(cacheBuffer, cacheDigest);
+                        cacheCompression = Compression.deflated(level, strategy);
+                    } else if (blockExecutor != null) {
+                        os = blockOutput = new ParallelDeflaterOutputStream(os, level, blockExecutor, blockSize, maxPendingBlocks);
+                    } else {
+                        os = new NoWrapDeflaterOutputStream(os, level, strategy);
+                    }
                     break;
                 case METHOD_STORED:
                     break;
@@ -134,10 +643,48 @@ public class ZipMaker implements Closeable {
                     throw new IOException("Unsupported compression method " + method);
             }
 
-            topOutput = new CrcOutputStream(os);
+            if (streaming && cacheBuffer == null) {
+                if (method == METHOD_DEFLATED) {
+                    // CRC与体积写入data descriptor，本地文件头中均为0
+                    generalPurposeFlag |= DATA_DESCRIPTOR_FLAG;
+                    if (header.size >= 0xf0000000L) {
+                        header.sizeNeedZip64 = true;
+                    }
+                    header.crc = 0;
+                    header.size = ZipEntry.UNKNOWN_SIZE;
+                    header.compressedSize = ZipEntry.UNKNOWN_SIZE;
+                } else if (header.size == ZipEntry.UNKNOWN_SIZE) {
+                    // 存储条目不能使用data descriptor，体积未知时先缓存
+                    os = storedBuffer = new SpillOutputStream(STORED_BUFFER_MEMORY_LIMIT);
+                } else {
+                    header.compressedSize = header.size;
+                    expectedCrc = header.crc;
+                    expectedSize = header.size;
+                }
+            }
+
+            if (blockOutput == null && method == METHOD_STORED && crcThreads > 1) {
+                if (crcExecutor == null) {
+                    crcExecutor = ParallelCompressor.newExecutor(crcThreads);
+                }
+                entryOutput = crcOutput = new ParallelCrcOutputStream(os, crcExecutor, crcThreads * 2);
+            } else if (blockOutput == null) {
+                entryOutput = topOutput = new CrcOutputStream(os);
+            } else {
+                // 分块压缩时CRC由各块合并得到
+                entryOutput = os;
+            }
+            if (levelTuner != null && method == METHOD_DEFLATED && cacheBuffer == null) {
+                entryOutput = timingOutput = new TimingOutputStream(entryOutput);
+                entryLevel = level;
+            }
 
             header.generalPurposeFlag = generalPurposeFlag;
             header.method = method;
+            if (storedBuffer != null || cacheBuffer != null) {
+                // 文件头在条目结束后写入
+                return;
+            }
         } else {
             header.method = METHOD_STORED;
             if (header.isUtf8) {
@@ -150,17 +697,33 @@ public class ZipMaker implements Closeable {
     }
 
     public void putNextRawEntry(ZipEntry ze) throws IOException {
+        writeSubmittedEntries(true);
         if (currentHeader != null)
             closeEntry();
-        CenterFileHeader header = new CenterFileHeader(ze);
-        if (header.isUtf8)
-            header.generalPurposeFlag |= UFT8_NAMES_FLAG;
+        CenterFileHeader header = newRawHeader(ze);
         header.headerOffset = _getFilePointer();
         headers.add(header);
         writeHeader(header);
         header.dataOffset = _getFilePointer();
     }
 
+    private CenterFileHeader newRawHeader(ZipEntry ze) {
+        CenterFileHeader header = new CenterFileHeader(ze);
+        if (header.isUtf8)
+            header.generalPurposeFlag |= UFT8_NAMES_FLAG;
+        if (deterministic) {
+            header.extra = ExtraDataRecord.trim(header.extra);
+        }
+        return header;
+    }
+
+    /**
+     * @return 下一个条目文件头的位置，需要在条目之间调用
+     */
+    long getFilePointer() throws IOException {
+        return _getFilePointer();
+    }
+
     public void writeRaw(byte[] data) throws IOException {
         writeRaw(data, 0, data.length);
     }
@@ -172,39 +735,469 @@ public class ZipMaker implements Closeable {
     public void copyZipEntry(ZipEntry ze, ZipFile zipFile) throws IOException {
         putNextRawEntry(ze);
         if (!ze.isDirectory()) {
-            InputStream is = zipFile.getRawInputStream(ze);
-            byte[] buffer = copyEntryBuffer;
+            copyRawData(zipFile.getRawInputStream(ze));
+        }
+    }
+
+    private void copyRawData(InputStream is) throws IOException {
+        byte[] buffer = BufferPool.acquire(COPY_BUFFER_SIZE);
+        try {
             int len;
             while ((len = is.read(buffer)) != -1) {
                 writeRaw(buffer, 0, len);
             }
+        } finally {
+            BufferPool.release(buffer);
+        }
+    }
+
+    /**
+     * 复制多个条目，源文件中连续存放且本地文件头可以原样保留的条目一次复制
+     * <p>
+     * 本地文件头与中央目录一致、不使用数据描述符、不含zip64扩展字段，且存储条目在新的位置仍满足对齐规则时，
+     * 本地文件头与数据原样复制，只修改中央目录中的偏移；其余条目与 {@link #copyZipEntry(ZipEntry, ZipFile)} 相同。
+     */
+    public void copyZipEntries(List<ZipEntry> entries, ZipFile zipFile) throws IOException {
+        if (entries.isEmpty()) {
+            return;
+        }
+        writeSubmittedEntries(true);
+        if (currentHeader != null)
+            closeEntry();
+        RandomAccessFile source = zipFile.openArchive();
+        byte[] buffer = BufferPool.acquire(BULK_COPY_BUFFER_SIZE);
+        try {
+            List<CenterFileHeader> run = new ArrayList<>();
+            int i = 0;
+            while (i < entries.size()) {
+                long runStart = entries.get(i).getHeaderOffset();
+                long runEnd = runStart;
+                long delta = _getFilePointer() - runStart;
+                // buffer中为源文件从bufferStart开始的bufferLength字节，bufferStart之前的数据已写入
+                long bufferStart = runStart;
+                int bufferLength = 0;
+                // 只读取源文件中连续存放的部分，不连续的条目不会多读
+                long contiguousEnd = runStart;
+                for (int j = i; j < entries.size() && entries.get(j).getHeaderOffset() == contiguousEnd; j++) {
+                    ZipEntry ze = entries.get(j);
+                    contiguousEnd = ze.getDataOffset() + ze.getCompressedSize();
+                }
+                run.clear();
+                while (i < entries.size()) {
+                    ZipEntry ze = entries.get(i);
+                    if (ze.getHeaderOffset() != runEnd) {
+                        break;
+                    }
+                    long headerEnd = ze.getDataOffset();
+                    if (headerEnd - ze.getHeaderOffset() > buffer.length) {
+                        break;
+                    }
+                    if (headerEnd > bufferStart + bufferLength) {
+                        // 写入之前的条目，从当前条目的文件头开始重新读取
+                        archive.write(buffer, 0, (int) Math.min(bufferLength, runEnd - bufferStart));
+                        copyRange(source, bufferStart + bufferLength, runEnd - bufferStart - bufferLength, buffer);
+                        bufferStart = runEnd;
+                        bufferLength = readAtMost(source, bufferStart, buffer, (int) Math.min(buffer.length, contiguousEnd - bufferStart));
+                    }
+                    CenterFileHeader header = createVerbatimHeader(ze, buffer, (int) (ze.getHeaderOffset() - bufferStart), delta);
+                    if (header == null) {
+                        break;
+                    }
+                    run.add(header);
+                    runEnd = ze.getDataOffset() + ze.getCompressedSize();
+                    i++;
+                }
+                if (run.isEmpty()) {
+                    copyZipEntry(entries.get(i++), zipFile);
+                    continue;
+                }
+                archive.write(buffer, 0, (int) Math.min(bufferLength, runEnd - bufferStart));
+                copyRange(source, bufferStart + bufferLength, runEnd - bufferStart - bufferLength, buffer);
+                headers.addAll(run);
+            }
+        } finally {
+            BufferPool.release(buffer);
+        }
+    }
+
+    /**
+     * 复制多个条目，先计算所有条目的文件头与位置，再由多个线程以定位写入的方式同时写入互不重叠的区域
+     * <p>
+     * 条目的体积都已知，对齐填充也可以预先确定。每个条目是否原样保留文件头与 {@link #copyZipEntries(List, ZipFile)}
+     * 的规则相同，输出也相同。流式输出或threads不大于1时直接使用该方法。
+     */
+    public void copyZipEntries(List<ZipEntry> entries, ZipFile zipFile, int threads) throws IOException {
+        if (threads <= 1 || streaming) {
+            copyZipEntries(entries, zipFile);
+            return;
+        }
+        writeSubmittedEntries(true);
+        if (currentHeader != null)
+            closeEntry();
+        _flushHeader();
+        RandomAccessFile source = zipFile.openArchive();
+        List<LayoutSegment> segments = new ArrayList<>();
+        long position = _getFilePointer();
+        LayoutSegment segment = new LayoutSegment(position);
+        segments.add(segment);
+        byte[] buffer = BufferPool.acquire(BULK_COPY_BUFFER_SIZE);
+        try {
+            for (ZipEntry ze : entries) {
+                // 文件头的取舍与逐段复制时相同，能原样保留的与数据一起从源文件复制
+                CenterFileHeader header = null;
+                long lfhLength = ze.getDataOffset() - ze.getHeaderOffset();
+                if (lfhLength <= buffer.length
+                        && readAtMost(source, ze.getHeaderOffset(), buffer, (int) lfhLength) == lfhLength) {
+                    header = createVerbatimHeader(ze, buffer, 0, position - ze.getHeaderOffset());
+                }
+                long sourceOffset;
+                long remaining;
+                if (header != null) {
+                    sourceOffset = ze.getHeaderOffset();
+                    remaining = lfhLength + ze.getCompressedSize();
+                    position += remaining;
+                } else {
+                    header = newRawHeader(ze);
+                    header.headerOffset = position;
+                    buildHeader(header, position);
+                    segment.add(Arrays.copyOf(headerBuffer, headerLength));
+                    header.dataOffset = position + headerLength;
+                    headerLength = 0;
+                    sourceOffset = ze.getDataOffset();
+                    remaining = ze.isDirectory() ? 0 : ze.getCompressedSize();
+                    position = header.dataOffset + remaining;
+                }
+                headers.add(header);
+                // 较大的条目分到多个区域，各线程的写入量更平均
+                while (remaining > 0) {
+                    if (segment.length >= LAYOUT_SEGMENT_SIZE) {
+                        segment = new LayoutSegment(segment.position + segment.length);
+                        segments.add(segment);
+                    }
+                    long len = Math.min(remaining, LAYOUT_SEGMENT_SIZE - segment.length);
+                    segment.add(sourceOffset, len);
+                    sourceOffset += len;
+                    remaining -= len;
+                }
+                if (segment.length >= LAYOUT_SEGMENT_SIZE) {
+                    segment = new LayoutSegment(position);
+                    segments.add(segment);
+                }
+            }
+        } finally {
+            BufferPool.release(buffer);
+        }
+        archive.flush();
+        ExecutorService executor = ParallelCompressor.newExecutor(Math.min(threads, segments.size()));
+        try {
+            List<Future<?>> futures = new ArrayList<>(segments.size());
+            for (LayoutSegment item : segments) {
+                futures.add(executor.submit(() -> {
+                    item.writeTo(source, archive);
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Copy interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        } finally {
+            executor.shutdownNow();
+        }
+        archive.seek(position);
+    }
+
+    /**
+     * 输出文件中连续的一段区域，由文件头与源文件中的数据组成
+     */
+    private static class LayoutSegment {
+        final long position;
+        final List<Object> parts = new ArrayList<>();
+        long length;
+
+        LayoutSegment(long position) {
+            this.position = position;
+        }
+
+        void add(byte[] bytes) {
+            parts.add(bytes);
+            length += bytes.length;
+        }
+
+        /**
+         * 源文件中从offset开始的length字节
+         */
+        void add(long offset, long length) {
+            parts.add(new long[]{offset, length});
+            this.length += length;
+        }
+
+        /**
+         * 文件头与较小的数据先集中到缓冲区，写满后一次写入
+         */
+        void writeTo(RandomAccessFile source, RandomAccessFile archive) throws IOException {
+            byte[] buffer = BufferPool.acquire(BULK_COPY_BUFFER_SIZE);
+            try {
+                long pos = position;
+                int count = 0;
+                for (Object part : parts) {
+                    if (part instanceof byte[]) {
+                        byte[] bytes = (byte[]) part;
+                        if (count + bytes.length > buffer.length) {
+                            archive.write(pos, buffer, 0, count);
+                            pos += count;
+                            count = 0;
+                        }
+                        System.arraycopy(bytes, 0, buffer, count, bytes.length);
+                        count += bytes.length;
+                        continue;
+                    }
+                    long offset = ((long[]) part)[0];
+                    long remaining = ((long[]) part)[1];
+                    while (remaining > 0) {
+                        if (count == buffer.length) {
+                            archive.write(pos, buffer, 0, count);
+                            pos += count;
+                            count = 0;
+                        }
+                        int len = source.read(offset, buffer, count, (int) Math.min(buffer.length - count, remaining));
+                        if (len == -1) {
+                            throw new EOFException();
+                        }
+                        count += len;
+                        offset += len;
+                        remaining -= len;
+                    }
+                }
+                if (count > 0) {
+                    archive.write(pos, buffer, 0, count);
+                }
+            } finally {
+                BufferPool.release(buffer);
+            }
         }
     }
 
+    /**
+     * @param off   本地文件头在lfh中的位置，文件头之后的数据不会被读取
+     * @param delta 新位置与原位置的差
+     * @return 本地文件头不能原样保留时返回null
+     */
+    private CenterFileHeader createVerbatimHeader(ZipEntry ze, byte[] lfh, int off, long delta) throws IOException {
+        if (forceZip64) {
+            return null;
+        }
+        CenterFileHeader header = new CenterFileHeader(ze);
+        header.headerOffset = ze.getHeaderOffset() + delta;
+        header.dataOffset = ze.getDataOffset() + delta;
+        setupNeedZip64(header);
+        if (header.sizeNeedZip64) {
+            return null;
+        }
+        if (header.method == METHOD_STORED && !ze.isDirectory()
+                && header.dataOffset % alignmentPolicy.getAlignment(header.nameStr) != 0) {
+            return null;
+        }
+        int nameOffset = off + LFH_OFFSET_FOR_FILENAME_LENGTH + SHORT + SHORT;
+        int end = (int) (off + ze.getDataOffset() - ze.getHeaderOffset());
+        if (end < nameOffset + header.name.length) {
+            return null;
+        }
+        int flag = ZipUtil.readUShort(lfh, off + 6);
+        if (ZipUtil.readInt(lfh, off) != LFH_SIG
+                || (flag & DATA_DESCRIPTOR_FLAG) != 0
+                || ZipUtil.readUShort(lfh, off + 8) != header.method
+                || ZipUtil.readInt(lfh, off + 14) != header.crc
+                || (ZipUtil.readInt(lfh, off + 18) & 0xFFFFFFFFL) != header.compressedSize
+                || (ZipUtil.readInt(lfh, off + 22) & 0xFFFFFFFFL) != header.size
+                || ZipUtil.readUShort(lfh, off + 26) != header.name.length
+                || nameOffset + header.name.length + ZipUtil.readUShort(lfh, off + 28) != end) {
+            return null;
+        }
+        for (int i = 0; i < header.name.length; i++) {
+            if (lfh[nameOffset + i] != header.name[i]) {
+                return null;
+            }
+        }
+        byte[] extra = Arrays.copyOfRange(lfh, nameOffset + header.name.length, end);
+        if (ExtraDataRecord.indexOf(extra, ZIP64_EXTENDED_INFO_HEADER_ID) >= 0) {
+            return null;
+        }
+        header.generalPurposeFlag = flag;
+        header.extra = ExtraDataRecord.trim(header.extra);
+        return header;
+    }
+
+    private static int readAtMost(RandomAccessFile source, long position, byte[] buffer, int length) throws IOException {
+        int count = 0;
+        while (count < length) {
+            int len = source.read(position + count, buffer, count, length - count);
+            if (len == -1) {
+                break;
+            }
+            count += len;
+        }
+        return count;
+    }
+
+    private void copyRange(RandomAccessFile source, long offset, long length, byte[] buffer) throws IOException {
+        while (length > 0) {
+            int len = source.read(offset, buffer, 0, (int) Math.min(buffer.length, length));
+            if (len == -1) {
+                throw new EOFException();
+            }
+            archive.write(buffer, 0, len);
+            offset += len;
+            length -= len;
+        }
+    }
+
+    /**
+     * 复制内容相同的多个条目，数据只写入一次
+     * <p>
+     * 后一个条目的本地文件头嵌套在前一个条目本地文件头的扩展字段中，所有条目的数据位置相同，
+     * 每个条目的本地文件头与中央目录中的文件名一致。存储条目的数据按各条目对齐规则中最大的字节数对齐。
+     * 扩展字段超过长度上限时分为多组，每组写入一份数据。
+     * <p>
+     * <b>注意：</b>这不是标准的ZIP结构。通过中央目录读取的实现（java.util.zip.ZipFile、Android的包管理器、
+     * apksigner的文件头一致性检查与V2/V3签名校验）可以正常处理，但按顺序读取本地文件头的实现
+     * （如java.util.zip.ZipInputStream）只能读到每组的第一个条目，其它工具重新处理时也可能丢失嵌套的条目。
+     *
+     * @param entries 压缩方式、CRC、体积与原始数据都相同的条目，数据只从第一个条目读取，其余条目可以来自其它文件
+     * @param zipFile 第一个条目所在的文件
+     */
+    public void copySharedEntries(List<ZipEntry> entries, ZipFile zipFile) throws IOException {
+        writeSubmittedEntries(true);
+        if (currentHeader != null)
+            closeEntry();
+        ZipEntry first = entries.get(0);
+        List<CenterFileHeader> group = new ArrayList<>(entries.size());
+        for (ZipEntry ze : entries) {
+            if (ze.isDirectory() || ze.getMethod() != first.getMethod() || ze.getCrc() != first.getCrc()
+                    || ze.getSize() != first.getSize() || ze.getCompressedSize() != first.getCompressedSize()) {
+                throw new ZipException("Entry " + ze.getName() + " differs from " + first.getName());
+            }
+            CenterFileHeader header = new CenterFileHeader(ze);
+            header.extra = ExtraDataRecord.trim(ExtraDataRecord.remove(header.extra, ZIP64_EXTENDED_INFO_HEADER_ID));
+            if (header.isUtf8)
+                header.generalPurposeFlag |= UFT8_NAMES_FLAG;
+            group.add(header);
+        }
+        int start = 0;
+        while (start < group.size()) {
+            int end = group.size();
+            while (!layoutSharedHeaders(group.subList(start, end))) {
+                end--;
+            }
+            List<CenterFileHeader> chunk = group.subList(start, end);
+            for (CenterFileHeader header : chunk) {
+                header.headerOffset = _getFilePointer();
+                headers.add(header);
+                writeHeader(header);
+            }
+            long dataOffset = _getFilePointer();
+            for (CenterFileHeader header : chunk) {
+                header.dataOffset = dataOffset;
+            }
+            copyRawData(zipFile.getRawInputStream(first));
+            start = end;
+        }
+    }
+
+    /**
+     * 计算嵌套的文件头的长度，最外层的扩展字段超过长度上限时返回false
+     */
+    private boolean layoutSharedHeaders(List<CenterFileHeader> chunk) throws IOException {
+        long position = _getFilePointer();
+        int alignment = 1;
+        int[] sizes = new int[chunk.size()];
+        long total = 0;
+        for (int i = 0; i < chunk.size(); i++) {
+            CenterFileHeader header = chunk.get(i);
+            header.headerOffset = position;
+            setupNeedZip64(header);
+            sizes[i] = LFH_OFFSET_FOR_FILENAME_LENGTH + SHORT + SHORT + header.name.length
+                    + (header.sizeNeedZip64 ? SHORT + SHORT + 2 * 8 : 0) + header.extra.length;
+            total += sizes[i];
+            if (header.method == METHOD_STORED) {
+                alignment = Math.max(alignment, alignmentPolicy.getAlignment(header.nameStr));
+            }
+        }
+        long nested = total - sizes[0] + getAlignedPadding(position + total, alignment);
+        if (chunk.size() > 1 && chunk.get(0).extra.length + nested > 0xffff) {
+            return false;
+        }
+        for (int i = 0; i < chunk.size(); i++) {
+            CenterFileHeader header = chunk.get(i);
+            header.nestedLength = (int) nested;
+            header.alignment = alignment;
+            if (i + 1 < chunk.size()) {
+                nested -= sizes[i + 1];
+            }
+        }
+        chunk.get(chunk.size() - 1).nestedLength = 0;
+        return true;
+    }
+
+    /**
+     * 以存储方式写入宿主条目，数据直接复制，不经过条目输出流
+     * <p>
+     * 宿主文件分块，各块在工作线程中通过定位读写复制并计算CRC，每块只读取一次，完成后再写入文件头中的CRC。
+     * 流式输出时文件头必须先于数据写出，CRC需要预先单独计算一遍。
+     */
     public HostEntryHolder putNextHostEntry(String name, ZipFile zipFile) throws IOException {
         if (name.endsWith("/") || name.endsWith("\\")) {
             throw new IOException("Invalid host entry name: " + name);
         }
-        int savedMethod = method;
-        method = METHOD_STORED;
-        CenterFileHeader centerFileHeader = new CenterFileHeader(name);
-        centerFileHeader.isHost = true;
-        putNextEntry(centerFileHeader);
-        method = savedMethod;
-        return new HostEntryHolder(zipFile);
+        writeSubmittedEntries(true);
+        if (currentHeader != null)
+            closeEntry();
+        RandomAccessFile source = zipFile.openArchive();
+        long size = source.length();
+        CenterFileHeader header = newHeader(name);
+        header.isHost = true;
+        header.alignment = alignmentPolicy.getHostAlignment(zipFile);
+        header.method = METHOD_STORED;
+        if (header.isUtf8)
+            header.generalPurposeFlag |= UFT8_NAMES_FLAG;
+        header.size = size;
+        header.compressedSize = size;
+        if (streaming) {
+            header.crc = ParallelCrc32.compute(source, 0, size, crcThreads);
+        }
+        header.headerOffset = _getFilePointer();
+        headers.add(header);
+        writeHeader(header);
+        header.dataOffset = _getFilePointer();
+        if (streaming) {
+            byte[] buffer = BufferPool.acquire(BULK_COPY_BUFFER_SIZE);
+            try {
+                copyRange(source, 0, size, buffer);
+            } finally {
+                BufferPool.release(buffer);
+            }
+        } else {
+            archive.flush();
+            header.crc = ParallelCrc32.copy(source, 0, size, archive, header.dataOffset, crcThreads);
+            _seek(header.headerOffset + WORD + SHORT + SHORT + SHORT + WORD);
+            _writeInt(header.crc);
+            _flushHeader();
+            _seek(header.dataOffset + size);
+        }
+        return new HostEntryHolder(header, zipFile);
     }
 
     public class HostEntryHolder {
         private final CenterFileHeader hostHeader;
         private final ZipFile zipFile;
 
-        private HostEntryHolder(ZipFile zipFile) throws IOException {
-            this.hostHeader = Objects.requireNonNull(currentHeader);
+        private HostEntryHolder(CenterFileHeader hostHeader, ZipFile zipFile) {
+            this.hostHeader = hostHeader;
             this.zipFile = zipFile;
-            try (RandomAccessFile archive = zipFile.getArchive().newSameInstance()) {
-                writeFully(new BridgeInputStream(archive, 0, archive.length()));
-                closeEntry();
-            }
         }
 
         public long getHostEntryHeaderOffset() {
@@ -226,6 +1219,16 @@ public class ZipMaker implements Closeable {
     }
 
     private void writeHeader(CenterFileHeader header) throws IOException {
+        buildHeader(header, _getFilePointer());
+        _flushHeader();
+    }
+
+    /**
+     * 在headerBuffer中生成本地文件头
+     *
+     * @param position 文件头在文件中的位置
+     */
+    private void buildHeader(CenterFileHeader header, long position) throws IOException {
         setupNeedZip64(header);
 
         _writeInt(LFH_SIG);
@@ -242,32 +1245,28 @@ public class ZipMaker implements Closeable {
             _writeUInt(header.size);
         }
         _writeShort(header.name.length);
+        int extraLengthPos = headerLength;
+        _writeShort(0);
+        _writeBytes(header.name);
 
-        byte[] extra;
+        int extraStart = headerLength;
         if (header.sizeNeedZip64) {
-            byte[] data = new byte[2 * 8];
-            ZipUtil.writeLong(data, 0, header.size);
-            ZipUtil.writeLong(data, 8, header.compressedSize);
-            extra = ExtraDataRecord.set(header.extra, ZIP64_EXTENDED_INFO_HEADER_ID, data);
-        } else {
-            extra = ExtraDataRecord.remove(header.extra, ZIP64_EXTENDED_INFO_HEADER_ID);
-        }
-        // zipAlign
-        if (header.method == METHOD_STORED) {
-            int alignment;
-            if (header.isHost || new String(header.name, ZipConstant.UTF_8).endsWith(".so")) {
-                // -p: memory page alignment for stored shared object files
-                alignment = 4096;
-            } else {
-                alignment = 4;
+            _writeShort(ZIP64_EXTENDED_INFO_HEADER_ID);
+            _writeShort(2 * 8);
+            _writeLong(header.size);
+            _writeLong(header.compressedSize);
+        }
+        _writeExtraWithoutZip64(header.extra);
+        // zipAlign，嵌套的文件头由最内层的文件头对齐
+        if (header.method == METHOD_STORED && header.nestedLength == 0) {
+            int alignment = header.alignment;
+            if (alignment == 0) {
+                alignment = alignmentPolicy.getAlignment(header.nameStr);
             }
-            long extraDataOffset = _getFilePointer() + 2 + header.name.length;
-            extra = align(alignment, extra, extraDataOffset);
+            long extraDataOffset = position + extraStart;
+            align(alignment, extraStart, extraDataOffset);
         }
-        _writeShort(extra.length);
-        _writeBytes(header.name);
-
-        _writeBytes(extra);
+        _setShort(extraLengthPos, headerLength - extraStart + header.nestedLength);
     }
 
     private void setupNeedZip64(CenterFileHeader header) {
@@ -297,33 +1296,61 @@ public class ZipMaker implements Closeable {
     }
 
     public void write(int b) throws IOException {
-        topOutput.write(b);
+        entryOutput.write(b);
     }
 
     public void write(byte[] data) throws IOException {
-        topOutput.write(data);
+        entryOutput.write(data);
     }
 
     public void write(byte[] data, int off, int len) throws IOException {
-        topOutput.write(data, off, len);
+        entryOutput.write(data, off, len);
     }
 
     public void writeFully(InputStream is) throws IOException {
         int len;
-        byte[] b = new byte[1024 * 4];
-        while ((len = is.read(b)) > 0)
-            write(b, 0, len);
+        byte[] b = BufferPool.acquire(COPY_BUFFER_SIZE);
+        try {
+            while ((len = is.read(b)) > 0)
+                write(b, 0, len);
+        } finally {
+            BufferPool.release(b);
+        }
     }
 
     public void closeEntry() throws IOException {
         if (currentHeader == null) {
             return;
         }
-        topOutput.close();
-
-        currentHeader.crc = topOutput.getCrc();
-        currentHeader.compressedSize = bottomOutput.getCount();
-        currentHeader.size = topOutput.getCount();
+        entryOutput.close();
+
+        if (blockOutput != null) {
+            currentHeader.crc = blockOutput.getCrc();
+            currentHeader.size = blockOutput.getCount();
+        } else if (crcOutput != null) {
+            currentHeader.crc = crcOutput.getCrc();
+            currentHeader.size = crcOutput.getCount();
+        } else {
+            currentHeader.crc = topOutput.getCrc();
+            currentHeader.size = topOutput.getCount();
+        }
+        if (cacheBuffer != null) {
+            closeCachedEntry();
+            return;
+        }
+        if (storedBuffer != null) {
+            currentHeader.compressedSize = storedBuffer.getCount();
+        } else {
+            currentHeader.compressedSize = bottomOutput.getCount();
+        }
+        if (timingOutput != null) {
+            levelTuner.record(entryLevel, currentHeader.size, currentHeader.compressedSize, timingOutput.nanos);
+            timingOutput = null;
+        }
+        if (streaming) {
+            closeStreamingEntry();
+            return;
+        }
 
         long saved = _getFilePointer();
         _seek(currentHeader.headerOffset + WORD + SHORT + SHORT + SHORT + WORD);
@@ -331,6 +1358,7 @@ public class ZipMaker implements Closeable {
         if (currentHeader.sizeNeedZip64) {
             _writeUInt(MAX_ZIP_ENTRY_AND_ARCHIVE_SIZE);
             _writeUInt(MAX_ZIP_ENTRY_AND_ARCHIVE_SIZE);
+            _flushHeader();
 
             // skip nameLength + extraLength + nameData
             _skip(SHORT + SHORT + currentHeader.name.length);
@@ -352,20 +1380,124 @@ public class ZipMaker implements Closeable {
             _writeUInt(currentHeader.compressedSize);
             _writeUInt(currentHeader.size);
         }
+        _flushHeader();
 
         archive.seek(saved);
 
         topOutput = null;
+        crcOutput = null;
+        blockOutput = null;
+        entryOutput = null;
         bottomOutput = null;
         currentHeader = null;
     }
 
+    private void closeCachedEntry() throws IOException {
+        CenterFileHeader header = currentHeader;
+        SpillOutputStream compressed = null;
+        try {
+            byte[] digest = cacheDigest.digest();
+            long cachedSize = deflateCache.getCompressedSize(digest, header.crc, header.size, cacheCompression);
+            if (cachedSize != -1) {
+                header.compressedSize = cachedSize;
+                writeHeader(header);
+                header.dataOffset = _getFilePointer();
+                deflateCache.copyTo(digest, cacheCompression, archive);
+                return;
+            }
+            compressed = new SpillOutputStream(STORED_BUFFER_MEMORY_LIMIT);
+            try (OutputStream os = new NoWrapDeflaterOutputStream(compressed, cacheCompression.getLevel(), cacheCompression.getStrategy())) {
+                cacheBuffer.writeTo(os);
+            }
+            header.compressedSize = compressed.getCount();
+            writeHeader(header);
+            header.dataOffset = _getFilePointer();
+            compressed.writeTo(archive);
+            deflateCache.put(digest, header.crc, header.size, cacheCompression, compressed);
+        } finally {
+            cacheBuffer.release();
+            if (compressed != null) {
+                compressed.release();
+            }
+            cacheBuffer = null;
+            cacheCompression = null;
+            topOutput = null;
+            crcOutput = null;
+            entryOutput = null;
+            bottomOutput = null;
+            currentHeader = null;
+        }
+    }
+
+    private void closeStreamingEntry() throws IOException {
+        CenterFileHeader header = currentHeader;
+        try {
+            if (storedBuffer != null) {
+                writeHeader(header);
+                header.dataOffset = _getFilePointer();
+                storedBuffer.writeTo(archive);
+            } else if ((header.generalPurposeFlag & DATA_DESCRIPTOR_FLAG) != 0) {
+                _writeInt(EXT_SIG);
+                _writeInt(header.crc);
+                if (header.sizeNeedZip64) {
+                    _writeLong(header.compressedSize);
+                    _writeLong(header.size);
+                } else {
+                    if (header.compressedSize >= MAX_ZIP_ENTRY_AND_ARCHIVE_SIZE ||
+                            header.size >= MAX_ZIP_ENTRY_AND_ARCHIVE_SIZE) {
+                        throw new IOException("Zip entry size needs zip64: name=" + header.nameStr
+                                + ", compressedSize=" + header.compressedSize
+                                + ", size=" + header.size
+                        );
+                    }
+                    _writeUInt(header.compressedSize);
+                    _writeUInt(header.size);
+                }
+                _flushHeader();
+            } else if (header.crc != expectedCrc || header.size != expectedSize) {
+                throw new ZipException("Entry does not match the given crc and size: name=" + header.nameStr
+                        + ", crc=" + Integer.toHexString(header.crc) + ", size=" + header.size
+                        + ", expectedCrc=" + Integer.toHexString(expectedCrc) + ", expectedSize=" + expectedSize);
+            }
+        } finally {
+            if (storedBuffer != null) {
+                storedBuffer.release();
+                storedBuffer = null;
+            }
+            topOutput = null;
+            crcOutput = null;
+            blockOutput = null;
+            entryOutput = null;
+            bottomOutput = null;
+            currentHeader = null;
+        }
+    }
+
     @Override
     public void close() throws IOException {
         if (archive.isClosed())
             return;
-        if (currentHeader != null)
-            closeEntry();
+        try {
+            writeSubmittedEntries(true);
+            if (currentHeader != null)
+                closeEntry();
+        } finally {
+            if (compressor != null) {
+                compressor.close();
+                compressor = null;
+            }
+            if (blockExecutor != null) {
+                blockExecutor.shutdownNow();
+                blockExecutor = null;
+            }
+            if (crcExecutor != null) {
+                crcExecutor.shutdownNow();
+                crcExecutor = null;
+            }
+        }
+        if (appending) {
+            removeReplacedHeaders();
+        }
         long cdOffset = _getFilePointer();
         try {
             Collections.sort(headers);
@@ -375,18 +1507,56 @@ public class ZipMaker implements Closeable {
         for (CenterFileHeader header : headers) {
             writeCentralFileHeader(header);
         }
+        _flushHeader();
         long cdSize = _getFilePointer() - cdOffset;
         writeCentralDirectoryEnd(cdSize, cdOffset);
+        if (appending) {
+            // 新的中央目录可能比原来的短
+            archive.setLength(archive.getFilePointer());
+        }
         archive.close();
     }
 
-    private byte[] align(int alignment, byte[] extra, long extraDataOffset) throws IOException {
-        if (isAligned(extraDataOffset + extra.length, alignment)) {
-            return extra;
+    /**
+     * 同名的条目只保留最后写入的
+     */
+    private void removeReplacedHeaders() {
+        Set<String> names = new HashSet<>();
+        ArrayList<CenterFileHeader> result = new ArrayList<>(headers.size());
+        for (int i = headers.size() - 1; i >= 0; i--) {
+            CenterFileHeader header = headers.get(i);
+            if (names.add(header.nameStr)) {
+                result.add(header);
+            }
+        }
+        Collections.reverse(result);
+        headers.clear();
+        headers.addAll(result);
+    }
+
+    /**
+     * 删除已写入的条目，数据仍保留在文件中
+     */
+    boolean removeEntry(String name) throws IOException {
+        writeSubmittedEntries(true);
+        if (currentHeader != null) {
+            closeEntry();
+        }
+        return headers.removeIf(header -> header.nameStr.equals(name));
+    }
+
+    /**
+     * 在头部缓冲区中对齐extraStart开始的extra数据，不对齐时先去除无效数据再补0
+     */
+    private void align(int alignment, int extraStart, long extraDataOffset) {
+        if (isAligned(extraDataOffset + headerLength - extraStart, alignment)) {
+            return;
         }
-        extra = ExtraDataRecord.trim(extra);
-        int padding = getAlignedPadding(extraDataOffset + extra.length, alignment);
-        return Arrays.copyOf(extra, extra.length + padding);
+        headerLength = extraStart + ExtraDataRecord.trimmedLength(headerBuffer, extraStart, headerLength - extraStart);
+        int padding = getAlignedPadding(extraDataOffset + headerLength - extraStart, alignment);
+        _ensureHeaderCapacity(padding);
+        Arrays.fill(headerBuffer, headerLength, headerLength + padding, (byte) 0);
+        headerLength += padding;
     }
 
     private static boolean isAligned(long pos, int alignTo) {
@@ -399,16 +1569,6 @@ public class ZipMaker implements Closeable {
 
     private void writeCentralFileHeader(CenterFileHeader header) throws IOException {
         boolean needZip64 = header.needZip64();
-        byte[] extra;
-        if (needZip64) {
-            byte[] data = new byte[3 * 8];
-            ZipUtil.writeLong(data, 0, header.size);
-            ZipUtil.writeLong(data, 8, header.compressedSize);
-            ZipUtil.writeLong(data, 16, header.headerOffset);
-            extra = ExtraDataRecord.set(header.extra, ZIP64_EXTENDED_INFO_HEADER_ID, data);
-        } else {
-            extra = ExtraDataRecord.remove(header.extra, ZIP64_EXTENDED_INFO_HEADER_ID);
-        }
 
         _writeInt(CFH_SIG);
         _writeShort(Math.max(20, header.version()));
@@ -425,7 +1585,8 @@ public class ZipMaker implements Closeable {
             _writeUInt(header.size);
         }
         _writeShort(header.name.length);
-        _writeShort(extra.length);
+        int extraLengthPos = headerLength;
+        _writeShort(0);
         _writeShort(header.comment.length);
         _writeShort(header.diskNumberStart);
         _writeShort(header.internalAttributes);
@@ -436,8 +1597,21 @@ public class ZipMaker implements Closeable {
             _writeUInt(header.headerOffset);
         }
         _writeBytes(header.name);
-        _writeBytes(extra);
+        int extraStart = headerLength;
+        if (needZip64) {
+            _writeShort(ZIP64_EXTENDED_INFO_HEADER_ID);
+            _writeShort(3 * 8);
+            _writeLong(header.size);
+            _writeLong(header.compressedSize);
+            _writeLong(header.headerOffset);
+        }
+        _writeExtraWithoutZip64(header.extra);
+        _setShort(extraLengthPos, headerLength - extraStart);
         _writeBytes(header.comment);
+        // 中央目录的记录攒够一定数量再一起写入
+        if (headerLength >= 64 * 1024) {
+            _flushHeader();
+        }
     }
 
     private void writeCentralDirectoryEnd(long cdSize, long cdOffset) throws IOException {
@@ -480,6 +1654,7 @@ public class ZipMaker implements Closeable {
         }
         _writeShort(comment.length);
         _writeBytes(comment);
+        _flushHeader();
     }
 
     private void _seek(long position) throws IOException {
@@ -494,41 +1669,105 @@ public class ZipMaker implements Closeable {
         archive.skipBytes(n);
     }
 
-    private void _writeBytes(byte[] data) throws IOException {
-        if (data.length > 0)
-            archive.write(data);
+    private void _ensureHeaderCapacity(int n) {
+        if (headerLength + n > headerBuffer.length) {
+            headerBuffer = Arrays.copyOf(headerBuffer, Math.max(headerBuffer.length * 2, headerLength + n));
+        }
     }
 
-    private void _writeShort(int v) throws IOException {
-        archive.write(v & 0xFF);
-        archive.write((v >>> 8) & 0xFF);
+    private void _flushHeader() throws IOException {
+        if (headerLength > 0) {
+            archive.write(headerBuffer, 0, headerLength);
+            headerLength = 0;
+        }
     }
 
-    private void _writeInt(int v) throws IOException {
-        archive.write(v & 0xFF);
-        archive.write((v >>> 8) & 0xFF);
-        archive.write((v >>> 16) & 0xFF);
-        archive.write((v >>> 24) & 0xFF);
+    private void _writeExtraWithoutZip64(byte[] extra) {
+        int index = ExtraDataRecord.indexOf(extra, ZIP64_EXTENDED_INFO_HEADER_ID);
+        if (index < 0) {
+            _writeBytes(extra, 0, extra.length);
+        } else {
+            int end = index + 4 + ((extra[index + 2] & 0xFF) | (extra[index + 3] & 0xFF) << 8);
+            _writeBytes(extra, 0, index);
+            _writeBytes(extra, end, extra.length - end);
+        }
     }
 
-    private void _writeLong(long v) throws IOException {
-        archive.write((int) (v & 0xFF));
-        archive.write((int) ((v >>> 8) & 0xFF));
-        archive.write((int) ((v >>> 16) & 0xFF));
-        archive.write((int) ((v >>> 24) & 0xFF));
-        archive.write((int) ((v >>> 32) & 0xFF));
-        archive.write((int) ((v >>> 40) & 0xFF));
-        archive.write((int) ((v >>> 48) & 0xFF));
-        archive.write((int) ((v >>> 56) & 0xFF));
+    private void _writeBytes(byte[] data) {
+        _writeBytes(data, 0, data.length);
+    }
+
+    private void _writeBytes(byte[] data, int off, int len) {
+        _ensureHeaderCapacity(len);
+        System.arraycopy(data, off, headerBuffer, headerLength, len);
+        headerLength += len;
+    }
+
+    private void _setShort(int pos, int v) {
+        headerBuffer[pos] = (byte) v;
+        headerBuffer[pos + 1] = (byte) (v >>> 8);
+    }
+
+    private void _writeShort(int v) {
+        _ensureHeaderCapacity(2);
+        _setShort(headerLength, v);
+        headerLength += 2;
+    }
+
+    private void _writeInt(int v) {
+        _ensureHeaderCapacity(4);
+        byte[] b = headerBuffer;
+        int pos = headerLength;
+        b[pos] = (byte) v;
+        b[pos + 1] = (byte) (v >>> 8);
+        b[pos + 2] = (byte) (v >>> 16);
+        b[pos + 3] = (byte) (v >>> 24);
+        headerLength += 4;
+    }
+
+    private void _writeLong(long v) {
+        _writeInt((int) v);
+        _writeInt((int) (v >>> 32));
     }
 
     private void _writeUInt(long v) throws IOException {
         if (v < 0 || v > 0xffffffffL) {
             throw new IOException("Value out of unsigned int.");
         }
-        archive.write((int) (v & 0xFF));
-        archive.write((int) ((v >>> 8) & 0xFF));
-        archive.write((int) ((v >>> 16) & 0xFF));
-        archive.write((int) ((v >>> 24) & 0xFF));
+        _writeInt((int) v);
     }
+
+    /**
+     * 统计写入条目数据的耗时，用于调整压缩等级
+     */
+    private static class TimingOutputStream extends OutputStream {
+        private final OutputStream out;
+        long nanos;
+
+        TimingOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            long start = System.nanoTime();
+            out.write(b);
+            nanos += System.nanoTime() - start;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            long start = System.nanoTime();
+            out.write(b, off, len);
+            nanos += System.nanoTime() - start;
+        }
+
+        @Override
+        public void close() throws IOException {
+            long start = System.nanoTime();
+            out.close();
+            nanos += System.nanoTime() - start;
+        }
+    }
+
 }
@@ -0,0 +1,252 @@
+package bin.zip;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.zip.ZipException;
+
+/**
+ * 把多个ZIP的条目合并到一个文件中，如把base与各个split合并为一个完整的APK
+ * <p>
+ * 条目按原始数据复制，不解压也不重新压缩。按添加顺序写入各个文件，每个文件的条目保持原来的存放顺序，
+ * 连续存放的条目一次复制，见 {@link ZipMaker#copyZipEntries(List, ZipFile, int)}；开启 {@link #setShareDuplicates(boolean)}
+ * 后内容相同的条目只写入一份数据。存储条目按对齐规则重新对齐。
+ * <p>
+ * 同名且内容相同的条目只保留一个，内容不同时按 {@link ConflictPolicy} 处理。合并只涉及ZIP结构，
+ * AndroidManifest.xml与resources.arsc等文件不会被合并，签名文件通常需要排除并在合并后重新签名。
+ *
+ * @author Bin
+ */
+public class ZipMerger {
+
+    public enum ConflictPolicy {
+        /**
+         * 保留先添加的文件中的条目
+         */
+        KEEP_FIRST,
+        /**
+         * 保留后添加的文件中的条目
+         */
+        KEEP_LAST,
+        /**
+         * 抛出ZipException
+         */
+        FAIL
+    }
+
+    private final ConflictPolicy conflictPolicy;
+    private final List<ZipFile> inputs = new ArrayList<>();
+    private final List<GlobPattern> excludes = new ArrayList<>();
+    private AlignmentPolicy alignmentPolicy = AlignmentPolicy.PAGE_16K;
+    private boolean shareDuplicates;
+    private int threads = 1;
+
+    public ZipMerger(ConflictPolicy conflictPolicy) {
+        this.conflictPolicy = Objects.requireNonNull(conflictPolicy);
+    }
+
+    /**
+     * 添加输入文件，合并完成前不能关闭
+     */
+    public ZipMerger add(ZipFile zipFile) {
+        inputs.add(Objects.requireNonNull(zipFile));
+        return this;
+    }
+
+    /**
+     * 排除匹配的条目，规则与 {@link EntryOrder} 相同
+     */
+    public ZipMerger exclude(String glob) {
+        excludes.add(new GlobPattern(glob));
+        return this;
+    }
+
+    /**
+     * 排除根目录META-INF下的v1签名文件
+     */
+    public ZipMerger excludeSignatureFiles() {
+        return exclude("/META-INF/MANIFEST.MF")
+                .exclude("/META-INF/*.SF")
+                .exclude("/META-INF/*.RSA")
+                .exclude("/META-INF/*.DSA")
+                .exclude("/META-INF/*.EC");
+    }
+
+    /**
+     * 设置存储条目的对齐规则，默认为 {@link AlignmentPolicy#PAGE_16K}，合并后的文件重新对齐，不受输入文件的影响
+     */
+    public void setAlignmentPolicy(AlignmentPolicy policy) {
+        this.alignmentPolicy = Objects.requireNonNull(policy);
+    }
+
+    /**
+     * 设置不同名但内容相同的条目是否只写入一份数据，默认关闭
+     * <p>
+     * 开启后输出不是标准的ZIP结构，见 {@link ZipMaker#copySharedEntries(List, ZipFile)}
+     */
+    public void setShareDuplicates(boolean shareDuplicates) {
+        this.shareDuplicates = shareDuplicates;
+    }
+
+    /**
+     * 设置复制条目的线程数，大于1时以定位写入的方式并行复制
+     */
+    public void setParallelism(int threads) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("threads=" + threads);
+        }
+        this.threads = threads;
+    }
+
+    public void merge(File output) throws IOException {
+        Collection<Source> sources = collectSources();
+        List<List<Source>> groups;
+        if (shareDuplicates) {
+            groups = groupDuplicates(sources);
+        } else {
+            groups = new ArrayList<>(sources.size());
+            for (Source source : sources) {
+                groups.add(Collections.singletonList(source));
+            }
+        }
+        try (ZipMaker zipMaker = new ZipMaker(output)) {
+            zipMaker.setAlignmentPolicy(alignmentPolicy);
+            // 同一文件中连续的单个条目一起复制
+            List<ZipEntry> batch = new ArrayList<>();
+            ZipFile batchFile = null;
+            for (List<Source> group : groups) {
+                Source first = group.get(0);
+                if (group.size() == 1 && first.zipFile == batchFile) {
+                    batch.add(first.entry);
+                    continue;
+                }
+                if (!batch.isEmpty()) {
+                    zipMaker.copyZipEntries(batch, batchFile, threads);
+                    batch.clear();
+                }
+                if (group.size() == 1) {
+                    batchFile = first.zipFile;
+                    batch.add(first.entry);
+                } else {
+                    batchFile = null;
+                    List<ZipEntry> entries = new ArrayList<>(group.size());
+                    for (Source source : group) {
+                        entries.add(source.entry);
+                    }
+                    zipMaker.copySharedEntries(entries, first.zipFile);
+                }
+            }
+            if (!batch.isEmpty()) {
+                zipMaker.copyZipEntries(batch, batchFile, threads);
+            }
+        }
+    }
+
+    /**
+     * @return 去除排除的条目并处理同名条目后，按写入顺序排列的条目
+     */
+    private Collection<Source> collectSources() throws IOException {
+        Map<String, Source> sources = new LinkedHashMap<>();
+        for (ZipFile zipFile : inputs) {
+            List<ZipEntry> entries = new ArrayList<>(zipFile.entries());
+            entries.sort(Comparator.comparingLong(ZipEntry::getHeaderOffset));
+            for (ZipEntry entry : entries) {
+                String name = entry.getName();
+                if (isExcluded(name)) {
+                    continue;
+                }
+                Source source = new Source(zipFile, entry);
+                Source existing = sources.get(name);
+                if (existing != null) {
+                    if (isSameContent(existing, source)) {
+                        continue;
+                    }
+                    switch (conflictPolicy) {
+                        case KEEP_FIRST:
+                            continue;
+                        case KEEP_LAST:
+                            // 移到后面，与所在文件的其它条目连续写入
+                            sources.remove(name);
+                            break;
+                        default:
+                            throw new ZipException("Conflicting entry " + name + " in "
+                                    + existing.zipFile.getArchive().getName() + " and " + zipFile.getArchive().getName());
+                    }
+                }
+                sources.put(name, source);
+            }
+        }
+        return sources.values();
+    }
+
+    private boolean isExcluded(String name) {
+        for (GlobPattern pattern : excludes) {
+            if (pattern.matches(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isSameContent(Source source1, Source source2) throws IOException {
+        ZipEntry entry1 = source1.entry;
+        ZipEntry entry2 = source2.entry;
+        if (entry1.isDirectory() || entry2.isDirectory()) {
+            return entry1.isDirectory() && entry2.isDirectory();
+        }
+        return entry1.getMethod() == entry2.getMethod() && entry1.getCrc() == entry2.getCrc()
+                && entry1.getSize() == entry2.getSize() && entry1.getCompressedSize() == entry2.getCompressedSize()
+                && DataMultiplexing.isRawContentEquals(source1.zipFile, entry1, source2.zipFile, entry2);
+    }
+
+    /**
+     * 按内容分组，每组按第一个条目的位置排列，组内保持原顺序
+     */
+    private static List<List<Source>> groupDuplicates(Collection<Source> sources) throws IOException {
+        Map<List<Long>, List<List<Source>>> candidates = new HashMap<>();
+        List<List<Source>> groups = new ArrayList<>(sources.size());
+        for (Source source : sources) {
+            ZipEntry entry = source.entry;
+            if (entry.isDirectory() || entry.getCompressedSize() == 0) {
+                groups.add(Collections.singletonList(source));
+                continue;
+            }
+            List<Long> key = Arrays.asList((long) entry.getMethod(), (long) entry.getCrc(), entry.getSize(), entry.getCompressedSize());
+            List<List<Source>> sameKey = candidates.computeIfAbsent(key, k -> new ArrayList<>(1));
+            List<Source> group = null;
+            for (List<Source> candidate : sameKey) {
+                if (isSameContent(candidate.get(0), source)) {
+                    group = candidate;
+                    break;
+                }
+            }
+            if (group == null) {
+                group = new ArrayList<>(1);
+                sameKey.add(group);
+                groups.add(group);
+            }
+            group.add(source);
+        }
+        return groups;
+    }
+
+    private static class Source {
+        final ZipFile zipFile;
+        final ZipEntry entry;
+
+        Source(ZipFile zipFile, ZipEntry entry) {
+            this.zipFile = zipFile;
+            this.entry = entry;
+        }
+    }
+
+}
@@ -0,0 +1,619 @@
+package bin.zip;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.*;
+import java.util.zip.CRC32;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+import static bin.zip.ZipConstant.*;
+
+/**
+ * 顺序读取ZIP数据，不需要随机访问，适用于管道、网络等无法seek的输入
+ * <p>
+ * 按本地文件头依次返回条目，条目数据可在传输过程中直接读取，读到中央目录时
+ * 与已读取的本地文件头进行核对，不一致时抛出 {@link ZipException}。
+ *
+ * @author Bin
+ */
+public class ZipStreamReader implements Closeable {
+    private static final long APK_SIG_BLOCK_MAGIC_HI = 0x3234206b636f6c42L;
+    private static final long APK_SIG_BLOCK_MAGIC_LO = 0x20676953204b5041L;
+    private static final int APK_SIG_BLOCK_ALIGNMENT = 4096;
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private final PositionInputStream in;
+    private final Map<Long, ZipEntry> localEntries = new LinkedHashMap<>();
+    private final List<ZipEntry> unvisitedEntries = new ArrayList<>();
+    private List<ZipEntry> centralDirectoryEntries;
+
+    private ZipEntry currentEntry;
+    private boolean currentZip64;
+    private EntryInputStream currentStream;
+    private boolean reachedCentralDirectory;
+    private boolean closed;
+
+    public ZipStreamReader(InputStream is) {
+        this.in = new PositionInputStream(is, BUFFER_SIZE + 64);
+    }
+
+    public ZipStreamReader(ReadableByteChannel channel) {
+        this(Channels.newInputStream(channel));
+    }
+
+    /**
+     * 读取下一个本地文件头，上一个条目未读完的数据会被跳过
+     *
+     * @return 下一个条目，读到中央目录后返回null
+     */
+    public ZipEntry getNextEntry() throws IOException {
+        ensureOpen();
+        if (currentEntry != null) {
+            closeEntry();
+        }
+        if (reachedCentralDirectory) {
+            return null;
+        }
+        long offset = in.getPosition();
+        int sig = _readInt();
+        if (sig == LFH_SIG) {
+            readLocalFileHeader(offset);
+            return currentEntry;
+        }
+        if (sig != CFH_SIG && sig != EOCD_SIG) {
+            // 最后一个条目与中央目录之间可能存在对齐填充以及APK签名块
+            sig = skipApkSigningBlock(sig);
+        }
+        if (sig == CFH_SIG) {
+            readCentralDirectory();
+        } else if (sig == EOCD_SIG) {
+            centralDirectoryEntries = new ArrayList<>();
+        } else {
+            throw new ZipException("Unexpected signature 0x" + Integer.toHexString(sig) + " at offset " + offset);
+        }
+        reachedCentralDirectory = true;
+        return null;
+    }
+
+    /**
+     * @return 当前条目解压后的数据，读取结束时会校验CRC与体积
+     */
+    public InputStream getInputStream() throws IOException {
+        ensureOpen();
+        if (currentEntry == null) {
+            throw new IOException("No current entry");
+        }
+        if (currentStream == null) {
+            currentStream = new EntryInputStream(currentEntry, false);
+        } else if (currentStream.raw) {
+            throw new IOException("Raw stream already opened: " + currentEntry.getName());
+        }
+        return currentStream;
+    }
+
+    /**
+     * @return 当前条目未解压的原始数据，压缩后体积未知（使用数据描述符）时无法获取
+     */
+    public InputStream getRawInputStream() throws IOException {
+        ensureOpen();
+        if (currentEntry == null) {
+            throw new IOException("No current entry");
+        }
+        if (currentEntry.getCompressedSize() == ZipEntry.UNKNOWN_SIZE) {
+            throw new ZipException("Compressed size is unknown: " + currentEntry.getName());
+        }
+        if (currentStream == null) {
+            currentStream = new EntryInputStream(currentEntry, true);
+        } else if (!currentStream.raw) {
+            throw new IOException("Stream already opened: " + currentEntry.getName());
+        }
+        return currentStream;
+    }
+
+    /**
+     * 跳过当前条目的剩余数据，并读取数据描述符（如果有）
+     */
+    public void closeEntry() throws IOException {
+        ensureOpen();
+        ZipEntry entry = currentEntry;
+        if (entry == null) {
+            return;
+        }
+        boolean hasDataDescriptor = (entry.getGeneralPurposeFlag() & DATA_DESCRIPTOR_FLAG) != 0;
+        if (currentStream == null && entry.getCompressedSize() != ZipEntry.UNKNOWN_SIZE) {
+            // 体积已知时直接跳过，无需解压
+            in.skipFully(entry.getCompressedSize());
+        } else {
+            if (currentStream == null) {
+                currentStream = new EntryInputStream(entry, false);
+            }
+            currentStream.drain();
+        }
+        if (hasDataDescriptor) {
+            readDataDescriptor(entry);
+        }
+        if (currentStream != null) {
+            currentStream.verify();
+        }
+        currentStream = null;
+        currentEntry = null;
+    }
+
+    /**
+     * @return 所有已读取的本地文件头对应的条目，按出现顺序排列
+     */
+    public List<ZipEntry> getLocalEntries() {
+        return new ArrayList<>(localEntries.values());
+    }
+
+    /**
+     * 读到中央目录后可用，顺序与中央目录一致
+     */
+    public List<ZipEntry> getCentralDirectoryEntries() {
+        if (centralDirectoryEntries == null) {
+            throw new IllegalStateException("Central directory not reached");
+        }
+        return centralDirectoryEntries;
+    }
+
+    /**
+     * 中央目录中存在，但没有在本地文件头序列中出现的条目，如数据复用优化后
+     * 指向原包内部的条目，它们的数据偏移无法在顺序读取时确定
+     */
+    public List<ZipEntry> getUnvisitedEntries() {
+        if (centralDirectoryEntries == null) {
+            throw new IllegalStateException("Central directory not reached");
+        }
+        return unvisitedEntries;
+    }
+
+    private void readLocalFileHeader(long offset) throws IOException {
+        ZipEntry ze = new ZipEntry();
+        _readUShort(); // skip version info
+        ze.setGeneralPurposeFlag(_readUShort());
+        ze.setMethod(_readUShort());
+        ze.setDosTime(_readUInt());
+        ze.setCrc(_readInt());
+        ze.setCompressedSize(_readUInt());
+        ze.setSize(_readUInt());
+        int fileNameLen = _readUShort();
+        int extraLen = _readUShort();
+        ze.setNameData(_readBytes(fileNameLen));
+        byte[] extra = _readBytes(extraLen);
+
+        currentZip64 = false;
+        ExtraDataRecord record = ExtraDataRecord.find(extra, ZIP64_EXTENDED_INFO_HEADER_ID);
+        if (record != null) {
+            currentZip64 = true;
+            int off = 0;
+            if (ze.getSize() == MAX_ZIP_ENTRY_AND_ARCHIVE_SIZE) {
+                ze.setSize(record.readLong(off));
+                off += 8;
+            }
+            if (ze.getCompressedSize() == MAX_ZIP_ENTRY_AND_ARCHIVE_SIZE) {
+                ze.setCompressedSize(record.readLong(off));
+            }
+            extra = ExtraDataRecord.remove(extra, ZIP64_EXTENDED_INFO_HEADER_ID);
+        }
+        ze.setExtra(extra);
+        ze.setHeaderOffset(offset);
+        ze.setDataOffset(in.getPosition());
+
+        if ((ze.getGeneralPurposeFlag() & DATA_DESCRIPTOR_FLAG) != 0) {
+            if (ze.getMethod() != METHOD_DEFLATED) {
+                throw new ZipException("Only deflated entries can have data descriptor: " + ze.getName());
+            }
+            ze.setCompressedSize(ZipEntry.UNKNOWN_SIZE);
+            ze.setSize(ZipEntry.UNKNOWN_SIZE);
+        }
+        localEntries.put(offset, ze);
+        currentEntry = ze;
+    }
+
+    private void readDataDescriptor(ZipEntry entry) throws IOException {
+        int crc = _readInt();
+        if (crc == EXT_SIG) {
+            crc = _readInt();
+        }
+        long compressedSize;
+        long size;
+        if (currentZip64) {
+            compressedSize = _readLong();
+            size = _readLong();
+        } else {
+            compressedSize = _readUInt();
+            size = _readUInt();
+        }
+        if (compressedSize != currentStream.compressedCount || size != currentStream.count) {
+            throw new ZipException("Data descriptor mismatch: name=" + entry.getName()
+                    + ", compressedSize=" + compressedSize + ", size=" + size);
+        }
+        entry.setCrc(crc);
+        entry.setCompressedSize(compressedSize);
+        entry.setSize(size);
+    }
+
+    private int skipApkSigningBlock(int sig) throws IOException {
+        in.unreadInt(sig);
+        // 签名块之前的填充只用于把签名块对齐到4K，最多跳过到下一个4K边界，不会误读签名块的体积
+        int gap = (int) (-in.getPosition() & (APK_SIG_BLOCK_ALIGNMENT - 1));
+        if (gap > 0) {
+            byte[] padding = new byte[gap];
+            in.readFully(padding);
+            for (byte b : padding) {
+                if (b != 0) {
+                    // 没有填充，签名块从当前位置开始
+                    in.unread(padding, 0, gap);
+                    break;
+                }
+            }
+        }
+        long blockOffset = in.getPosition();
+        long size = _readLong();
+        if (size < 24) {
+            throw new ZipException("Unexpected data at offset " + blockOffset);
+        }
+        in.skipFully(size - 24);
+        if (_readLong() != size || _readLong() != APK_SIG_BLOCK_MAGIC_LO || _readLong() != APK_SIG_BLOCK_MAGIC_HI) {
+            throw new ZipException("Unexpected data at offset " + blockOffset);
+        }
+        return _readInt();
+    }
+
+    private void readCentralDirectory() throws IOException {
+        List<ZipEntry> list = new ArrayList<>();
+        do {
+            ZipEntry ze = new ZipEntry();
+            int versionMadeBy = _readUShort();
+            ze.setPlatform((versionMadeBy >> 8) & 0xF);
+
+            _readUShort(); // skip version info
+
+            ze.setGeneralPurposeFlag(_readUShort());
+            ze.setMethod(_readUShort());
+            ze.setDosTime(_readUInt());
+            ze.setCrc(_readInt());
+
+            ze.setCompressedSize(_readUInt());
+            ze.setSize(_readUInt());
+
+            int fileNameLen = _readUShort();
+            int extraLen = _readUShort();
+            int commentLen = _readUShort();
+
+            _readUShort(); // disk number
+
+            ze.setInternalAttributes(_readUShort());
+            ze.setExternalAttributes(_readInt());
+
+            ze.setHeaderOffset(_readUInt());
+
+            ze.setNameData(_readBytes(fileNameLen));
+
+            byte[] extra = _readBytes(extraLen);
+            if (ze.getSize() == MAX_ZIP_ENTRY_AND_ARCHIVE_SIZE
+                    || ze.getCompressedSize() == MAX_ZIP_ENTRY_AND_ARCHIVE_SIZE
+                    || ze.getHeaderOffset() == MAX_ZIP_ENTRY_AND_ARCHIVE_SIZE) {
+                ze.setupZip64WithCenterDirectoryExtra(extra);
+            }
+            if (commentLen > 0) {
+                ze.setCommentData(_readBytes(commentLen));
+            }
+            list.add(ze);
+        } while (_readInt() == CFH_SIG);
+
+        List<ZipEntry> result = new ArrayList<>(list.size());
+        for (ZipEntry ze : list) {
+            ZipEntry local = localEntries.get(ze.getHeaderOffset());
+            if (local == null) {
+                unvisitedEntries.add(ze);
+                result.add(ze);
+                continue;
+            }
+            if (!local.getName().equals(ze.getName())
+                    || local.getMethod() != ze.getMethod()
+                    || local.getCrc() != ze.getCrc()
+                    || local.getCompressedSize() != ze.getCompressedSize()
+                    || local.getSize() != ze.getSize()) {
+                throw new ZipException("Central directory mismatch: name=" + ze.getName()
+                        + ", offset=" + ze.getHeaderOffset());
+            }
+            local.setPlatform(ze.getPlatform());
+            local.setInternalAttributes(ze.getInternalAttributes());
+            local.setExternalAttributes(ze.getExternalAttributes());
+            local.setCommentData(ze.getCommentData());
+            result.add(local);
+        }
+        centralDirectoryEntries = result;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+
+    private byte[] _readBytes(int len) throws IOException {
+        byte[] bytes = new byte[len];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private int _readInt() throws IOException {
+        int ch1 = in.read();
+        int ch2 = in.read();
+        int ch3 = in.read();
+        int ch4 = in.read();
+        if ((ch1 | ch2 | ch3 | ch4) < 0)
+            throw new EOFException();
+        return (ch1) | (ch2 << 8) | (ch3 << 16) | (ch4 << 24);
+    }
+
+    private int _readUShort() throws IOException {
+        int ch1 = in.read();
+        int ch2 = in.read();
+        if ((ch1 | ch2) < 0)
+            throw new EOFException();
+        return ch1 | (ch2 << 8);
+    }
+
+    private long _readUInt() throws IOException {
+        int value = _readInt();
+        return value & 0xFFFFFFFFL;
+    }
+
+    private long _readLong() throws IOException {
+        return _readUInt() | (_readUInt() << 32);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        in.close();
+    }
+
+    /**
+     * 条目数据流，负责解压、统计体积与计算CRC
+     */
+    private class EntryInputStream extends InputStream {
+        private final ZipEntry entry;
+        private final boolean raw;
+        private final InputStream is;
+        private final CRC32 crc32 = new CRC32();
+        private final byte[] single = new byte[1];
+        private EntryInflaterInputStream inflater;
+        private long count;
+        private long compressedCount;
+        private boolean eof;
+
+        EntryInputStream(ZipEntry entry, boolean raw) throws IOException {
+            this.entry = entry;
+            this.raw = raw;
+            long compressedSize = entry.getCompressedSize();
+            InputStream is = compressedSize == ZipEntry.UNKNOWN_SIZE ? null : new BoundedInputStream(compressedSize);
+            if (!raw) {
+                if ((entry.getGeneralPurposeFlag() & ENCRYPTED_FLAG) != 0) {
+                    throw new ZipException("Entry is encrypted: " + entry.getName());
+                }
+                switch (entry.getMethod()) {
+                    case METHOD_DEFLATED:
+                        is = inflater = new EntryInflaterInputStream(is);
+                        break;
+                    case METHOD_STORED:
+                        break;
+                    default:
+                        throw new ZipException("Unsupported compression method " + entry.getMethod() + " (" + entry.getName() + ")");
+                }
+            }
+            this.is = is;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (currentStream != this) {
+                throw new IOException("Stream closed");
+            }
+            if (eof) {
+                return -1;
+            }
+            int n = is.read(b, off, len);
+            if (n == -1) {
+                eof = true;
+                if (inflater != null) {
+                    compressedCount = inflater.finish();
+                } else {
+                    compressedCount = count;
+                }
+                return -1;
+            }
+            crc32.update(b, off, n);
+            count += n;
+            return n;
+        }
+
+        void drain() throws IOException {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            //noinspection StatementWithEmptyBody
+            while (read(buffer, 0, buffer.length) != -1) {
+            }
+        }
+
+        void verify() throws IOException {
+            if (!eof) {
+                return;
+            }
+            if (raw) {
+                if (entry.getMethod() == METHOD_STORED && entry.getCrc() != (int) crc32.getValue()) {
+                    throw new ZipException("CRC mismatch: " + entry.getName());
+                }
+                return;
+            }
+            if (entry.getSize() != count || entry.getCompressedSize() != compressedCount) {
+                throw new ZipException("Size mismatch: name=" + entry.getName()
+                        + ", size=" + count + ", compressedSize=" + compressedCount);
+            }
+            if (entry.getCrc() != (int) crc32.getValue()) {
+                throw new ZipException("CRC mismatch: " + entry.getName());
+            }
+        }
+
+        @Override
+        public void close() {
+            // 由ZipStreamReader负责跳过剩余数据
+        }
+    }
+
+    /**
+     * 压缩后体积未知时直接从底层流读取，解压结束后把多读的数据退回
+     */
+    private class EntryInflaterInputStream extends InflaterInputStream {
+        private final boolean bounded;
+
+        EntryInflaterInputStream(InputStream bounded) {
+            super(bounded == null ? ZipStreamReader.this.in : bounded, CodecPool.acquireInflater(), BUFFER_SIZE);
+            this.bounded = bounded != null;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            try {
+                return super.read(b, off, len);
+            } catch (EOFException e) {
+                throw new ZipException("Unexpected end of entry: " + currentEntry.getName());
+            }
+        }
+
+        /**
+         * @return 实际消耗的压缩数据长度
+         */
+        long finish() throws IOException {
+            int remaining = inf.getRemaining();
+            if (remaining > 0 && !bounded) {
+                ZipStreamReader.this.in.unread(buf, len - remaining, remaining);
+            }
+            long compressedCount = inf.getBytesRead();
+            CodecPool.releaseInflater(inf);
+            return compressedCount;
+        }
+
+        @Override
+        public void close() {
+            // 不关闭底层流
+        }
+    }
+
+    private class BoundedInputStream extends InputStream {
+        private long remaining;
+
+        BoundedInputStream(long size) {
+            this.remaining = size;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = in.read();
+            if (b == -1) {
+                throw new EOFException();
+            }
+            remaining--;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            if (len > remaining) {
+                len = (int) remaining;
+            }
+            int n = in.read(b, off, len);
+            if (n == -1) {
+                throw new EOFException();
+            }
+            remaining -= n;
+            return n;
+        }
+    }
+
+    /**
+     * 记录当前位置并支持回退的输入流
+     */
+    private static class PositionInputStream extends PushbackInputStream {
+        private long position;
+
+        PositionInputStream(InputStream in, int size) {
+            super(in, size);
+        }
+
+        long getPosition() {
+            return position;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                position++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                position += n;
+            }
+            return n;
+        }
+
+        void readFully(byte[] b) throws IOException {
+            int n = 0;
+            while (n < b.length) {
+                int count = read(b, n, b.length - n);
+                if (count < 0)
+                    throw new EOFException();
+                n += count;
+            }
+        }
+
+        void skipFully(long n) throws IOException {
+            byte[] buffer = new byte[(int) Math.min(n, BUFFER_SIZE)];
+            while (n > 0) {
+                int count = read(buffer, 0, (int) Math.min(n, buffer.length));
+                if (count < 0)
+                    throw new EOFException();
+                n -= count;
+            }
+        }
+
+        @Override
+        public void unread(int b) throws IOException {
+            super.unread(b);
+            position--;
+        }
+
+        @Override
+        public void unread(byte[] b, int off, int len) throws IOException {
+            super.unread(b, off, len);
+            position -= len;
+        }
+
+        void unreadInt(int v) throws IOException {
+            unread(new byte[]{(byte) v, (byte) (v >>> 8), (byte) (v >>> 16), (byte) (v >>> 24)}, 0, 4);
+        }
+    }
+}
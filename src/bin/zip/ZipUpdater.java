@@ -0,0 +1,211 @@
+package bin.zip;
+
+import bin.io.RandomAccessFactory;
+import bin.io.RandomAccessFile;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 在已有的zip文件上增加、替换或删除条目，不重写未改动的条目
+ * <p>
+ * 新条目从原中央目录的位置开始写入，关闭时写入新的中央目录；原文件带有APK签名块时从签名块的位置开始写入，
+ * 因此修改后需要重新签名。被替换或删除的条目数据仍留在文件中，可以通过 {@link #getDeadSpace()} 查看，
+ * 必要时调用 {@link #compact(File)} 重写整个文件。
+ *
+ * @author Bin
+ */
+public class ZipUpdater implements Closeable {
+    private static final long APK_SIG_BLOCK_MAGIC_HI = 0x3234206b636f6c42L;
+    private static final long APK_SIG_BLOCK_MAGIC_LO = 0x20676953204b5041L;
+
+    private final Map<String, ZipEntry> entries = new LinkedHashMap<>();
+    private final long appendOffset;
+    private final ZipMaker zipMaker;
+
+    public ZipUpdater(String path) throws IOException {
+        this(new File(path));
+    }
+
+    public ZipUpdater(File file) throws IOException {
+        String comment;
+        try (ZipFile zipFile = new ZipFile(file)) {
+            for (ZipEntry entry : zipFile.entries()) {
+                entries.put(entry.getName(), entry);
+            }
+            comment = zipFile.getComment();
+            appendOffset = findAppendOffset(zipFile.openArchive(), zipFile.getCentralDirectoryOffset());
+        }
+        List<CenterFileHeader> headers = new ArrayList<>(entries.size());
+        for (ZipEntry entry : entries.values()) {
+            CenterFileHeader header = new CenterFileHeader(entry);
+            // 本地文件头中的对齐填充不写入中央目录
+            header.extra = ExtraDataRecord.trim(header.extra);
+            header.generalPurposeFlag = entry.getGeneralPurposeFlag();
+            header.headerOffset = entry.getHeaderOffset();
+            header.dataOffset = entry.getDataOffset();
+            headers.add(header);
+        }
+        RandomAccessFile archive = RandomAccessFactory.from(file, "rw");
+        try {
+            zipMaker = new ZipMaker(archive, appendOffset, headers);
+        } catch (IOException e) {
+            archive.close();
+            throw e;
+        }
+        if (comment != null) {
+            zipMaker.setComment(comment);
+        }
+    }
+
+    /**
+     * @return APK签名块的位置，没有签名块时为中央目录的位置
+     */
+    private static long findAppendOffset(RandomAccessFile archive, long cdOffset) throws IOException {
+        if (cdOffset < 32) {
+            return cdOffset;
+        }
+        byte[] footer = new byte[24];
+        archive.seek(cdOffset - 24);
+        archive.readFully(footer);
+        if (ZipUtil.readLong(footer, 8) != APK_SIG_BLOCK_MAGIC_LO || ZipUtil.readLong(footer, 16) != APK_SIG_BLOCK_MAGIC_HI) {
+            return cdOffset;
+        }
+        long size = ZipUtil.readLong(footer, 0);
+        if (size < 24 || size > cdOffset - 8) {
+            return cdOffset;
+        }
+        return cdOffset - size - 8;
+    }
+
+    /**
+     * 通过该ZipMaker写入新的条目，与已有条目同名时替换已有条目
+     */
+    public ZipMaker getZipMaker() {
+        return zipMaker;
+    }
+
+    /**
+     * @return 打开时已有的条目，已删除的条目返回null
+     */
+    public ZipEntry getEntry(String name) {
+        return entries.get(name);
+    }
+
+    public List<ZipEntry> getEntries() {
+        return new ArrayList<>(entries.values());
+    }
+
+    public boolean remove(String name) throws IOException {
+        entries.remove(name);
+        return zipMaker.removeEntry(name);
+    }
+
+    /**
+     * @return 新条目写入位置之前，不属于任何保留条目的字节数，包括被替换与删除的条目
+     */
+    public long getDeadSpace() {
+        List<ZipEntry> list = new ArrayList<>(entries.values());
+        list.sort(Comparator.comparingLong(ZipEntry::getHeaderOffset));
+        long used = 0;
+        long end = 0;
+        for (ZipEntry entry : list) {
+            long start = Math.max(entry.getHeaderOffset(), end);
+            long entryEnd = Math.min(entry.getDataOffset() + entry.getCompressedSize(), appendOffset);
+            if (entryEnd > start) {
+                used += entryEnd - start;
+                end = entryEnd;
+            }
+        }
+        return appendOffset - used;
+    }
+
+    @Override
+    public void close() throws IOException {
+        zipMaker.close();
+    }
+
+    /**
+     * 按原顺序重写文件，去除不属于任何条目的数据
+     * <p>
+     * 数据位置相同的条目仍共享数据，包含其它条目文件头的存储条目按宿主条目重写，见 {@link DataMultiplexing}
+     */
+    public static void compact(File file) throws IOException {
+        File temp = File.createTempFile("compact", ".tmp", file.getAbsoluteFile().getParentFile());
+        try {
+            try (ZipFile zipFile = new ZipFile(file);
+                 ZipMaker zipMaker = new ZipMaker(temp)) {
+                String comment = zipFile.getComment();
+                if (comment != null) {
+                    zipMaker.setComment(comment);
+                }
+                List<ZipEntry> list = new ArrayList<>(zipFile.entries());
+                list.sort(Comparator.comparingLong(ZipEntry::getHeaderOffset));
+                for (ZipEntry entry : list) {
+                    entry.setExtra(ExtraDataRecord.trim(entry.getExtra()));
+                }
+                // 普通条目攒在一起复制，连续存放的条目可以一次复制
+                List<ZipEntry> batch = new ArrayList<>();
+                for (int i = 0; i < list.size(); i++) {
+                    ZipEntry entry = list.get(i);
+                    int end = i + 1;
+                    while (!entry.isDirectory() && end < list.size() && list.get(end).getDataOffset() == entry.getDataOffset()) {
+                        end++;
+                    }
+                    if (end > i + 1) {
+                        zipMaker.copyZipEntries(batch, zipFile);
+                        batch.clear();
+                        zipMaker.copySharedEntries(list.subList(i, end), zipFile);
+                        i = end - 1;
+                        continue;
+                    }
+                    long dataEnd = entry.getDataOffset() + entry.getCompressedSize();
+                    if (entry.getMethod() == ZipConstant.METHOD_STORED) {
+                        while (end < list.size() && list.get(end).getHeaderOffset() < dataEnd) {
+                            end++;
+                        }
+                    }
+                    if (end == i + 1) {
+                        batch.add(entry);
+                        continue;
+                    }
+                    zipMaker.copyZipEntries(batch, zipFile);
+                    batch.clear();
+                    List<ZipEntry> others = new ArrayList<>();
+                    try (ZipFile inner = zipFile.openEntryAsZipFile(entry)) {
+                        // 重写的宿主条目保留原来的时间
+                        zipMaker.setDeterministic(entry.getDosTime());
+                        ZipMaker.HostEntryHolder holder = zipMaker.putNextHostEntry(entry.getName(), inner);
+                        for (int j = i + 1; j < end; j++) {
+                            ZipEntry virtual = list.get(j);
+                            ZipEntry innerEntry = inner.getEntry(virtual.getName());
+                            if (innerEntry != null && innerEntry.getHeaderOffset() == virtual.getHeaderOffset() - entry.getDataOffset()) {
+                                holder.putNextVirtualEntry(virtual.getName());
+                            } else {
+                                others.add(virtual);
+                            }
+                        }
+                    }
+                    for (ZipEntry other : others) {
+                        zipMaker.copyZipEntry(other, zipFile);
+                    }
+                    i = end - 1;
+                }
+                zipMaker.copyZipEntries(batch, zipFile);
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            //noinspection ResultOfMethodCallIgnored
+            temp.delete();
+        }
+    }
+
+}
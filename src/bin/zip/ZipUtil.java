@@ -2,36 +2,120 @@ package bin.zip;
 
 import java.io.EOFException;
 import java.io.IOException;
-import java.util.Calendar;
+import java.util.TimeZone;
 
 /**
  * @author Bin
  */
 public class ZipUtil {
-    private static final Calendar CALENDAR = Calendar.getInstance();
+    private static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000L;
 
+    /**
+     * DOS时间为本地时间，这里直接按公历换算，不创建Calendar
+     */
     public static long dosToJavaTime(long dosTime) {
-        synchronized (CALENDAR) {
-            CALENDAR.set(Calendar.YEAR, (int) ((dosTime >> 25) & 0x7f) + 1980);
-            CALENDAR.set(Calendar.MONTH, (int) ((dosTime >> 21) & 0x0f) - 1);
-            CALENDAR.set(Calendar.DATE, (int) (dosTime >> 16) & 0x1f);
-            CALENDAR.set(Calendar.HOUR_OF_DAY, (int) (dosTime >> 11) & 0x1f);
-            CALENDAR.set(Calendar.MINUTE, (int) (dosTime >> 5) & 0x3f);
-            CALENDAR.set(Calendar.SECOND, (int) (dosTime << 1) & 0x3e);
-            return CALENDAR.getTime().getTime();
-        }
+        int year = (int) ((dosTime >> 25) & 0x7f) + 1980;
+        int month = (int) ((dosTime >> 21) & 0x0f);
+        int day = (int) (dosTime >> 16) & 0x1f;
+        int hour = (int) (dosTime >> 11) & 0x1f;
+        int minute = (int) (dosTime >> 5) & 0x3f;
+        int second = (int) (dosTime << 1) & 0x3e;
+        // 与宽松模式的Calendar一致，月份越界时进位到年份
+        year += Math.floorDiv(month - 1, 12);
+        month = Math.floorMod(month - 1, 12) + 1;
+        long local = daysFromCivil(year, month, day) * MILLIS_PER_DAY
+                + hour * 3600_000L + minute * 60_000L + second * 1000L;
+        TimeZone timeZone = TimeZone.getDefault();
+        int offset = timeZone.getOffset(local - timeZone.getRawOffset());
+        long time = local - offset;
+        int actualOffset = timeZone.getOffset(time);
+        return actualOffset == offset ? time : local - actualOffset;
     }
 
     public static long javaToDosTime(long time) {
-        Calendar cal = Calendar.getInstance();
-        cal.setTimeInMillis(time);
-        int year = cal.get(Calendar.YEAR);
+        long local = time + TimeZone.getDefault().getOffset(time);
+        long days = Math.floorDiv(local, MILLIS_PER_DAY);
+        int millisOfDay = (int) Math.floorMod(local, MILLIS_PER_DAY);
+        // civil from days, 参考 http://howardhinnant.github.io/date_algorithms.html
+        long z = days + 719468;
+        long era = Math.floorDiv(z, 146097);
+        long doe = z - era * 146097;
+        long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        long mp = (5 * doy + 2) / 153;
+        int day = (int) (doy - (153 * mp + 2) / 5 + 1);
+        int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+        long year = yoe + era * 400 + (month <= 2 ? 1 : 0);
         if (year < 1980) {
             return (1 << 21) | (1 << 16);
         }
-        return (year - 1980L) << 25 | (cal.get(Calendar.MONTH) + 1) << 21 |
-                cal.get(Calendar.DATE) << 16 | cal.get(Calendar.HOUR_OF_DAY) << 11 | cal.get(Calendar.MINUTE) << 5 |
-                cal.get(Calendar.SECOND) >> 1;
+        int seconds = millisOfDay / 1000;
+        return (year - 1980L) << 25 | month << 21 | day << 16
+                | (seconds / 3600) << 11 | (seconds / 60 % 60) << 5 | (seconds % 60) >> 1;
+    }
+
+    private static long daysFromCivil(long year, int month, int day) {
+        year -= month <= 2 ? 1 : 0;
+        long era = Math.floorDiv(year, 400);
+        long yoe = year - era * 400;
+        long doy = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        long doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        return era * 146097 + doe - 719468;
+    }
+
+    /**
+     * 由两段数据各自的CRC计算两段数据拼接后的CRC，算法与zlib的crc32_combine相同
+     *
+     * @param len2 第二段数据的长度
+     */
+    public static int crc32Combine(int crc1, int crc2, long len2) {
+        if (len2 <= 0) {
+            return crc1;
+        }
+        long[] even = new long[32];
+        long[] odd = new long[32];
+        // CRC-32多项式
+        odd[0] = 0xedb88320L;
+        long row = 1;
+        for (int n = 1; n < 32; n++) {
+            odd[n] = row;
+            row <<= 1;
+        }
+        gf2MatrixSquare(even, odd);
+        gf2MatrixSquare(odd, even);
+        long c1 = crc1 & 0xffffffffL;
+        do {
+            gf2MatrixSquare(even, odd);
+            if ((len2 & 1) != 0) {
+                c1 = gf2MatrixTimes(even, c1);
+            }
+            len2 >>= 1;
+            if (len2 == 0) {
+                break;
+            }
+            gf2MatrixSquare(odd, even);
+            if ((len2 & 1) != 0) {
+                c1 = gf2MatrixTimes(odd, c1);
+            }
+            len2 >>= 1;
+        } while (len2 != 0);
+        return (int) (c1 ^ (crc2 & 0xffffffffL));
+    }
+
+    private static long gf2MatrixTimes(long[] mat, long vec) {
+        long sum = 0;
+        for (int i = 0; vec != 0; i++, vec >>>= 1) {
+            if ((vec & 1) != 0) {
+                sum ^= mat[i];
+            }
+        }
+        return sum;
+    }
+
+    private static void gf2MatrixSquare(long[] square, long[] mat) {
+        for (int n = 0; n < 32; n++) {
+            square[n] = gf2MatrixTimes(mat, mat[n]);
+        }
     }
 
     public static void writeByte(byte[] array, int pos, int value) throws IOException {
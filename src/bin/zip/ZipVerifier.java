@@ -0,0 +1,377 @@
+package bin.zip;
+
+import bin.io.BufferPool;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import static bin.zip.ZipConstant.METHOD_DEFLATED;
+import static bin.zip.ZipConstant.METHOD_STORED;
+
+/**
+ * 多线程校验ZIP中所有条目的CRC与体积
+ * <p>
+ * 数据通过映射或定位读取访问，不受ZipFile打开模式的影响。条目按数据区域分组，
+ * 数据复用优化后多个条目指向同一区域时只解压校验一次，其余条目只与校验结果比对。
+ * 体积很大的存储区域（如宿主条目）分块提交，各块的CRC最后合并，不会只由一个线程读完。
+ *
+ * @author Bin
+ */
+public class ZipVerifier {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    /**
+     * 不小于该体积的存储区域分块计算CRC
+     */
+    private static final long PARALLEL_CRC_THRESHOLD = 4L * ParallelCrc32.BLOCK_SIZE;
+
+    private final ZipFile zipFile;
+    private final int threads;
+
+    public ZipVerifier(ZipFile zipFile, int threads) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("threads=" + threads);
+        }
+        this.zipFile = zipFile;
+        this.threads = threads;
+    }
+
+    public Result verify() throws IOException {
+        long start = System.nanoTime();
+        long archiveLength = zipFile.getArchiveLength();
+        List<Failure> failures = new ArrayList<>();
+        Map<RangeKey, List<ZipEntry>> rangeMap = new LinkedHashMap<>();
+        for (ZipEntry entry : zipFile.entries()) {
+            if (entry.getDataOffset() < 0 || entry.getCompressedSize() < 0
+                    || entry.getDataOffset() + entry.getCompressedSize() > archiveLength) {
+                failures.add(new Failure(entry, "Data out of range: offset=" + entry.getDataOffset()
+                        + ", compressedSize=" + entry.getCompressedSize()));
+                continue;
+            }
+            RangeKey key = new RangeKey(entry.getDataOffset(), entry.getCompressedSize(), entry.getMethod());
+            rangeMap.computeIfAbsent(key, k -> new ArrayList<>(1)).add(entry);
+        }
+        List<List<ZipEntry>> ranges = new ArrayList<>(rangeMap.values());
+        // 大的区域先开始，减少最后只剩一个线程在工作的时间
+        ranges.sort((r1, r2) -> Long.compare(r2.get(0).getCompressedSize(), r1.get(0).getCompressedSize()));
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new VerifierThreadFactory());
+        List<Future<RangeResult>> futures = new ArrayList<>(ranges.size());
+        try {
+            for (List<ZipEntry> range : ranges) {
+                ZipEntry entry = range.get(0);
+                if (threads > 1 && entry.getMethod() == METHOD_STORED && entry.getCompressedSize() >= PARALLEL_CRC_THRESHOLD) {
+                    futures.add(verifyStoredRange(entry, executor));
+                } else {
+                    futures.add(executor.submit(() -> verifyRange(entry)));
+                }
+            }
+            long readBytes = 0;
+            long uncompressedBytes = 0;
+            int sharedEntries = 0;
+            for (int i = 0; i < ranges.size(); i++) {
+                List<ZipEntry> range = ranges.get(i);
+                RangeResult result = futures.get(i).get();
+                readBytes += result.compressedSize;
+                uncompressedBytes += result.size;
+                sharedEntries += range.size() - 1;
+                for (ZipEntry entry : range) {
+                    String error = result.check(entry);
+                    if (error != null) {
+                        failures.add(new Failure(entry, error));
+                    }
+                }
+            }
+            return new Result(zipFile.getEntrySize(), ranges.size(), sharedEntries, failures,
+                    readBytes, uncompressedBytes, System.nanoTime() - start);
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Verification interrupted");
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+            awaitTermination(executor);
+        }
+    }
+
+    /**
+     * 出错或被中断时仍有任务在读取数据，等待它们结束后才返回，调用方之后可以安全地关闭ZipFile
+     */
+    private static void awaitTermination(ExecutorService executor) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                if (executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                    break;
+                }
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Future<RangeResult> verifyStoredRange(ZipEntry entry, ExecutorService executor) throws IOException {
+        long length = entry.getCompressedSize();
+        return ParallelCrc32.submit(zipFile.openArchive(), entry.getDataOffset(), length, executor).handle((crc, e) -> {
+            RangeResult result = new RangeResult();
+            if (e != null) {
+                Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                result.error = "I/O error: " + cause.getMessage();
+            } else {
+                result.crc = crc;
+                result.size = length;
+                result.compressedSize = length;
+            }
+            return result;
+        });
+    }
+
+    /**
+     * 缓冲区与Inflater在任务内取得并归还，不会在任务结束后仍被使用
+     */
+    private RangeResult verifyRange(ZipEntry entry) {
+        Buffers buffers = new Buffers();
+        try {
+            return verifyRange(entry, buffers);
+        } finally {
+            buffers.release();
+        }
+    }
+
+    private RangeResult verifyRange(ZipEntry entry, Buffers buffers) {
+        RangeResult result = new RangeResult();
+        CRC32 crc32 = new CRC32();
+        byte[] input = buffers.input;
+        try (InputStream is = zipFile.getRawInputStream(entry, true)) {
+            switch (entry.getMethod()) {
+                case METHOD_STORED: {
+                    int len;
+                    while ((len = is.read(input)) != -1) {
+                        crc32.update(input, 0, len);
+                        result.size += len;
+                    }
+                    result.compressedSize = result.size;
+                    break;
+                }
+                case METHOD_DEFLATED: {
+                    byte[] output = buffers.output;
+                    Inflater inflater = buffers.inflater;
+                    inflater.reset();
+                    while (!inflater.finished()) {
+                        if (inflater.needsInput()) {
+                            int len = is.read(input);
+                            if (len == -1) {
+                                result.error = "Unexpected end of entry";
+                                return result;
+                            }
+                            inflater.setInput(input, 0, len);
+                        }
+                        int len = inflater.inflate(output);
+                        if (len == 0 && inflater.needsDictionary()) {
+                            result.error = "Missing dictionary";
+                            return result;
+                        }
+                        crc32.update(output, 0, len);
+                    }
+                    result.size = inflater.getBytesWritten();
+                    result.compressedSize = inflater.getBytesRead();
+                    break;
+                }
+                default:
+                    result.error = "Unsupported compression method " + entry.getMethod();
+                    return result;
+            }
+        } catch (DataFormatException e) {
+            result.error = "Invalid deflate data: " + e.getMessage();
+            return result;
+        } catch (IOException e) {
+            result.error = "I/O error: " + e.getMessage();
+            return result;
+        }
+        result.crc = (int) crc32.getValue();
+        return result;
+    }
+
+    private static class RangeResult {
+        int crc;
+        long size;
+        long compressedSize;
+        String error;
+
+        String check(ZipEntry entry) {
+            if (error != null) {
+                return error;
+            }
+            if (entry.getMethod() == METHOD_STORED && entry.getSize() != entry.getCompressedSize()) {
+                return "Stored size mismatch: size=" + entry.getSize() + ", compressedSize=" + entry.getCompressedSize();
+            }
+            if (compressedSize != entry.getCompressedSize()) {
+                return "Compressed size mismatch: expected=" + entry.getCompressedSize() + ", actual=" + compressedSize;
+            }
+            if (size != entry.getSize()) {
+                return "Size mismatch: expected=" + entry.getSize() + ", actual=" + size;
+            }
+            if (crc != entry.getCrc()) {
+                return "CRC mismatch: expected=" + Integer.toHexString(entry.getCrc()) + ", actual=" + Integer.toHexString(crc);
+            }
+            return null;
+        }
+    }
+
+    private static class RangeKey {
+        final long offset;
+        final long length;
+        final int method;
+
+        RangeKey(long offset, long length, int method) {
+            this.offset = offset;
+            this.length = length;
+            this.method = method;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof RangeKey)) return false;
+            RangeKey key = (RangeKey) o;
+            return offset == key.offset && length == key.length && method == key.method;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(offset, length, method);
+        }
+    }
+
+    private static class Buffers {
+        final byte[] input = BufferPool.acquire(BUFFER_SIZE);
+        final byte[] output = BufferPool.acquire(BUFFER_SIZE);
+        final Inflater inflater = CodecPool.acquireInflater();
+
+        void release() {
+            BufferPool.release(input);
+            BufferPool.release(output);
+            CodecPool.releaseInflater(inflater);
+        }
+    }
+
+    private static class VerifierThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "ZipVerifier-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    public static class Failure {
+        private final ZipEntry entry;
+        private final String message;
+
+        Failure(ZipEntry entry, String message) {
+            this.entry = entry;
+            this.message = message;
+        }
+
+        public ZipEntry getEntry() {
+            return entry;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        @Override
+        public String toString() {
+            return entry.getName() + ": " + message;
+        }
+    }
+
+    public static class Result {
+        private final int entryCount;
+        private final int rangeCount;
+        private final int sharedEntryCount;
+        private final List<Failure> failures;
+        private final long readBytes;
+        private final long uncompressedBytes;
+        private final long elapsedNanos;
+
+        Result(int entryCount, int rangeCount, int sharedEntryCount, List<Failure> failures,
+               long readBytes, long uncompressedBytes, long elapsedNanos) {
+            this.entryCount = entryCount;
+            this.rangeCount = rangeCount;
+            this.sharedEntryCount = sharedEntryCount;
+            this.failures = Collections.unmodifiableList(failures);
+            this.readBytes = readBytes;
+            this.uncompressedBytes = uncompressedBytes;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public boolean isOk() {
+            return failures.isEmpty();
+        }
+
+        public List<Failure> getFailures() {
+            return failures;
+        }
+
+        public int getEntryCount() {
+            return entryCount;
+        }
+
+        /**
+         * @return 实际解压校验的数据区域数量
+         */
+        public int getVerifiedRangeCount() {
+            return rangeCount;
+        }
+
+        /**
+         * @return 与其它条目共用数据区域而无需重复校验的条目数量
+         */
+        public int getSharedEntryCount() {
+            return sharedEntryCount;
+        }
+
+        public long getReadBytes() {
+            return readBytes;
+        }
+
+        public long getUncompressedBytes() {
+            return uncompressedBytes;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        /**
+         * @return 每秒读取的原始数据量，单位MB/s
+         */
+        public double getThroughput() {
+            if (elapsedNanos <= 0) {
+                return 0;
+            }
+            return readBytes / 1048576.0 / (elapsedNanos / 1e9);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("entries=%d, ranges=%d, shared=%d, failures=%d, read=%d, uncompressed=%d, %.1fms, %.2fMB/s",
+                    entryCount, rangeCount, sharedEntryCount, failures.size(), readBytes, uncompressedBytes,
+                    elapsedNanos / 1e6, getThroughput());
+        }
+    }
+
+}